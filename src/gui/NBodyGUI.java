@@ -2,15 +2,17 @@ package gui;
 
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.Button;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
@@ -25,10 +27,12 @@ import javafx.scene.paint.Color;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
 import javafx.util.Callback;
-import lib.StdDraw;
 import lib.WildCardFilter;
-import nBodySim.Body;
+import nBodySim.ForceSolvers;
+import nBodySim.RenderLoop;
+import nBodySim.SimulationRunner;
 import nBodySim.Universe;
+import nBodySim.UniverseLoader;
 
 /**
  * The associated GUI of the NBody project
@@ -135,14 +139,20 @@ public class NBodyGUI extends Application {
 		sceneBox.add(simName, 0, 2);
 		sceneBox.add(inptSimName, 1, 2);
 		
+		Label solverName = new Label("Force solver:");
+		ComboBox<String> inptSolverName = new ComboBox<String>();
+		inptSolverName.getItems().addAll(ForceSolvers.NAMES);
+		inptSolverName.setValue(ForceSolvers.NAMES[0]);
+		inptSolverName.setEditable(true);
+		sceneBox.add(solverName, 0, 3);
+		sceneBox.add(inptSolverName, 1, 3);
+		
 		Button btnStart = new Button();
 		btnStart.setText("Start Simulation!");
 		//On button press
 		btnStart.setOnAction(new EventHandler<ActionEvent>() {
 			@Override
 			public void handle(ActionEvent event) {
-				//Enable the double buffer
-				StdDraw.enableDoubleBuffering();
 				try {
 					//Get the selected univers
 					toSim = getUniverseFromFile(simPath + inptSimName.getValue().getName());
@@ -152,15 +162,36 @@ public class NBodyGUI extends Application {
 				}
 				//Interpret the inputted values
 				toSim.setMaxTime(Double.parseDouble(inptEndTime.getText()));
-				//Run the sim
-				while(toSim.continueSimulation()) {
-					toSim.update(Double.parseDouble(inptDeltaTime.getText()));
-				}
-				//Reset the scene
-				primaryStage.setScene(getMainScene());
+				String solver = inptSolverName.getValue();
+				double deltaTime = Double.parseDouble(inptDeltaTime.getText());
+				//Run the sim on its own thread and draw on the render thread, so this window stays responsive
+				btnStart.setDisable(true);
+				RenderLoop renderLoop = new RenderLoop();
+				Universe universe = toSim;
+				SimulationRunner runner = new SimulationRunner(universe, deltaTime, renderLoop);
+				Thread simulation = new Thread(() -> {
+					try {
+						//Made here rather than on the FX thread, the tiled solver times itself the first time
+						try {
+							universe.setForceSolver(ForceSolvers.create(solver));
+						} catch(IllegalArgumentException e) {
+							//The solver name is typed in, so it may not be one
+							Platform.runLater(() -> new Alert(AlertType.ERROR, e.getMessage()).show());
+							return;
+						}
+						runner.run();
+					} finally {
+						//Stop drawing and reset the scene even if the sim failed
+						renderLoop.stop();
+						Platform.runLater(() -> primaryStage.setScene(getMainScene()));
+					}
+				}, "nbody-simulation");
+				simulation.setDaemon(true);
+				renderLoop.start();
+				simulation.start();
 			}
 		});
-		sceneBox.add(btnStart, 1, 3);
+		sceneBox.add(btnStart, 1, 4);
 		
 		//Add the universe text update, but nothing if not yet initialized
 		Text update;
@@ -170,7 +201,7 @@ public class NBodyGUI extends Application {
 			update = new Text(toSim.toString());
 		}
 		
-		sceneBox.add(update, 0, 4);
+		sceneBox.add(update, 0, 5);
 		GridPane.setColumnSpan(update, GridPane.REMAINING);
 		
 		return new Scene(sceneBox, width, height);
@@ -194,24 +225,9 @@ public class NBodyGUI extends Application {
 	 * Get a universe from a text file path
 	 * @param filePath The file to create from
 	 * @return the universe represented by the file
-	 * @throws FileNotFoundException if the file can not be found
+	 * @throws IOException if the file can not be read or is not a universe
 	 */
-	public static Universe getUniverseFromFile(String filePath) throws FileNotFoundException {
-		File universeFile = new File(filePath);
-		Scanner in = new Scanner(universeFile);
-		int numberOfBodies = Integer.parseInt(in.nextLine().trim());
-		double radius = Double.parseDouble(in.nextLine().trim());
-		Universe retUniverse = new Universe(radius);
-		int counter = 0;
-		while(in.hasNextLine() && counter < numberOfBodies) {
-			String nextLine = in.nextLine();
-			if(!nextLine.trim().equals("")) {
-				Body nextBody = Body.getBodyFromString(nextLine);
-				retUniverse.addBody(nextBody);
-				counter++;
-			}
-		}
-		in.close();
-		return retUniverse;
+	public static Universe getUniverseFromFile(String filePath) throws IOException {
+		return UniverseLoader.load(filePath);
 	}
 }
@@ -59,7 +59,9 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.TreeSet;
 import java.util.NoSuchElementException;
 import javax.imageio.ImageIO;
@@ -1350,9 +1352,97 @@ public final class StdDraw implements ActionListener, MouseListener, MouseMotion
    /***************************************************************************
     *  Drawing images.
     ***************************************************************************/
-    // get an image from the given filename
+    // most images kept decoded in memory; the least recently drawn one is dropped first
+    private static final int IMAGE_CACHE_SIZE = 256;
+
+    // decoded images keyed by filename, and pre-scaled copies keyed by filename and pixel size
+    private static final LinkedHashMap<String, Image> imageCache =
+        new LinkedHashMap<String, Image>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+                return size() > IMAGE_CACHE_SIZE;
+            }
+        };
+    private static long imageCacheHits = 0;
+    private static long imageCacheMisses = 0;
+
+    /**
+     * Returns the number of pictures drawn from the image cache.
+     *
+     * @return the number of image cache hits since the cache was last cleared
+     */
+    public static long getImageCacheHits() {
+        synchronized (imageCache) {
+            return imageCacheHits;
+        }
+    }
+
+    /**
+     * Returns the number of pictures that had to be read and decoded.
+     *
+     * @return the number of image cache misses since the cache was last cleared
+     */
+    public static long getImageCacheMisses() {
+        synchronized (imageCache) {
+            return imageCacheMisses;
+        }
+    }
+
+    /**
+     * Empties the image cache and resets its counters, so changed picture files are read again.
+     */
+    public static void clearImageCache() {
+        synchronized (imageCache) {
+            imageCache.clear();
+            imageCacheHits = 0;
+            imageCacheMisses = 0;
+        }
+    }
+
+    // get an image from the given filename, decoding it only if it is not cached
     private static Image getImage(String filename) {
         if (filename == null) throw new IllegalArgumentException();
+        synchronized (imageCache) {
+            Image image = imageCache.get(filename);
+            if (image != null) {
+                imageCacheHits++;
+                return image;
+            }
+            imageCacheMisses++;
+            image = readImage(filename);
+            imageCache.put(filename, image);
+            return image;
+        }
+    }
+
+    // get an image from the given filename, scaled to the given size in pixels, from the cache
+    private static Image getImage(String filename, int scaledWidth, int scaledHeight) {
+        String key = filename + '@' + scaledWidth + 'x' + scaledHeight;
+        synchronized (imageCache) {
+            Image image = imageCache.get(key);
+            if (image != null) {
+                imageCacheHits++;
+                return image;
+            }
+            imageCacheMisses++;
+            Image original = imageCache.get(filename);
+            if (original == null) {
+                original = readImage(filename);
+                imageCache.put(filename, original);
+            }
+            BufferedImage scaled = new BufferedImage(Math.max(scaledWidth, 1), Math.max(scaledHeight, 1), BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = scaled.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(original, 0, 0, scaled.getWidth(), scaled.getHeight(), null);
+            g.dispose();
+            imageCache.put(key, scaled);
+            return scaled;
+        }
+    }
+
+    // read and decode an image from the given filename
+    private static Image readImage(String filename) {
 
         // to read from file
         ImageIcon icon = new ImageIcon(filename);
@@ -1522,7 +1612,6 @@ public final class StdDraw implements ActionListener, MouseListener, MouseMotion
         validateNonnegative(scaledWidth, "scaled width");
         validateNonnegative(scaledHeight, "scaled height");
 
-        Image image = getImage(filename);
         double xs = scaleX(x);
         double ys = scaleY(y);
         double ws = factorX(scaledWidth);
@@ -1530,10 +1619,9 @@ public final class StdDraw implements ActionListener, MouseListener, MouseMotion
         if (ws < 0 || hs < 0) throw new IllegalArgumentException("image " + filename + " is corrupt");
         if (ws <= 1 && hs <= 1) pixel(x, y);
         else {
+            Image image = getImage(filename, (int) Math.round(ws), (int) Math.round(hs));
             offscreen.drawImage(image, (int) Math.round(xs - ws/2.0),
-                                       (int) Math.round(ys - hs/2.0),
-                                       (int) Math.round(ws),
-                                       (int) Math.round(hs), null);
+                                       (int) Math.round(ys - hs/2.0), null);
         }
         draw();
     }
@@ -1564,19 +1652,17 @@ public final class StdDraw implements ActionListener, MouseListener, MouseMotion
         validateNonnegative(scaledWidth, "scaled width");
         validateNonnegative(scaledHeight, "scaled height");
 
-        Image image = getImage(filename);
         double xs = scaleX(x);
         double ys = scaleY(y);
         double ws = factorX(scaledWidth);
         double hs = factorY(scaledHeight);
         if (ws < 0 || hs < 0) throw new IllegalArgumentException("image " + filename + " is corrupt");
         if (ws <= 1 && hs <= 1) pixel(x, y);
+        Image image = getImage(filename, (int) Math.round(ws), (int) Math.round(hs));
 
         offscreen.rotate(Math.toRadians(-degrees), xs, ys);
         offscreen.drawImage(image, (int) Math.round(xs - ws/2.0),
-                                   (int) Math.round(ys - hs/2.0),
-                                   (int) Math.round(ws),
-                                   (int) Math.round(hs), null);
+                                   (int) Math.round(ys - hs/2.0), null);
         offscreen.rotate(Math.toRadians(+degrees), xs, ys);
 
         draw();
@@ -146,8 +146,9 @@ public class Vector2D {
 	 * @return the distance between this and the passed vector
 	 */
 	public double distance(Vector2D vct) {
-		Vector2D displacement = new Vector2D(x - vct.getX(), y - vct.getY());
-		return displacement.magnitude();
+		double dx = x - vct.getX();
+		double dy = y - vct.getY();
+		return Math.sqrt(dx * dx + dy * dy);
 	}
 	
 	/**
@@ -157,8 +158,9 @@ public class Vector2D {
 	 * @return The distance between the two vectors
 	 **/
 	public static double distance(Vector2D vct1, Vector2D vct2) {
-		Vector2D displacement = new Vector2D(vct1.getX() - vct2.getX(), vct1.getY() - vct2.getY());
-		return displacement.magnitude();
+		double dx = vct1.getX() - vct2.getX();
+		double dy = vct1.getY() - vct2.getY();
+		return Math.sqrt(dx * dx + dy * dy);
 	}
 	
 	/**
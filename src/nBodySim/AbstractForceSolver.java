@@ -0,0 +1,52 @@
+package nBodySim;
+
+/**
+ * Keeps the per-step cost figures that every force solver reports
+ * @author andre
+ *
+ */
+public abstract class AbstractForceSolver implements ForceSolver {
+	/**
+	 * The interactions evaluated by the last step
+	 */
+	private long lastInteractions;
+	/**
+	 * The time taken by the last step
+	 */
+	private long lastNanos;
+
+	@Override
+	public final void computeAccelerations(BodyStore bodies, double gravitationalConstant) {
+		long start = System.nanoTime();
+		lastInteractions = solve(bodies, gravitationalConstant);
+		lastNanos = System.nanoTime() - start;
+	}
+
+	/**
+	 * Work out the acceleration of every body
+	 * @param bodies
+	 * @param gravitationalConstant
+	 * @return the number of interactions evaluated
+	 */
+	protected abstract long solve(BodyStore bodies, double gravitationalConstant);
+
+	@Override
+	public long getLastInteractions() {
+		return lastInteractions;
+	}
+
+	@Override
+	public long getLastNanos() {
+		return lastNanos;
+	}
+
+	@Override
+	public boolean isExact() {
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+}
@@ -0,0 +1,84 @@
+package nBodySim;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Checks that stepping a universe allocates nothing once it is warmed up, by reading the bytes
+ * the current thread has allocated before and after a run of steps. Every given engine is run
+ * with every integrator, on a random universe with no display, and the check fails with exit
+ * code 1 if any run allocates more than a few bytes.
+ * Usage: AllocationCheck [bodies] [steps] [engine...]
+ * <p>
+ * By default every single threaded engine is checked, simd only when ForceSolvers.isSimdAvailable
+ * says the vector solver is used, since otherwise it is the direct sum again. parallel,
+ * parallel-barnes-hut and parallel-simd are left out, handing work to the pool allocates a task
+ * for each part of it every step, and are only checked when named
+ * @author andre
+ *
+ */
+public class AllocationCheck {
+	/**
+	 * The engines checked when none are given, every single threaded one but simd, which is added
+	 * when the vector solver is available
+	 */
+	private static final String[] DEFAULT_ENGINES = { "direct", "barnes-hut", "particle-mesh", "p3m", "fmm", "tiled" };
+	/**
+	 * Steps taken before measuring, so the JIT has compiled the step and escape analysis has
+	 * removed what it can
+	 */
+	private static final int WARMUP_STEPS = 300;
+	/**
+	 * The most a whole run may allocate, room for the odd deoptimization and nothing that
+	 * grows with the number of steps
+	 */
+	private static final long ALLOWED_BYTES = 1024;
+
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int steps = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		String[] engines = DEFAULT_ENGINES;
+		if(args.length > 2) {
+			engines = new String[args.length - 2];
+			System.arraycopy(args, 2, engines, 0, engines.length);
+		}
+		else if(ForceSolvers.isSimdAvailable()) {
+			engines = Arrays.copyOf(DEFAULT_ENGINES, DEFAULT_ENGINES.length + 1);
+			engines[DEFAULT_ENGINES.length] = "simd";
+		}
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if(!threads.isThreadAllocatedMemorySupported()) {
+			System.err.println("This JVM can not count allocated bytes");
+			System.exit(2);
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+		long thread = Thread.currentThread().getId();
+
+		boolean failed = false;
+		System.out.println("engine\tintegrator\tbytes\tbytes/step");
+		for(String engine : engines) {
+			for(Integrator integrator : Integrator.values()) {
+				Universe universe = ScalingBenchmark.randomUniverse(n, 42);
+				universe.setForceSolver(ForceSolvers.create(engine));
+				universe.setIntegrator(integrator);
+				for(int i = 0; i < WARMUP_STEPS; i++) {
+					universe.step(1);
+				}
+				long before = threads.getThreadAllocatedBytes(thread);
+				for(int i = 0; i < steps; i++) {
+					universe.step(1);
+				}
+				long bytes = threads.getThreadAllocatedBytes(thread) - before;
+				boolean passed = bytes <= ALLOWED_BYTES;
+				failed |= !passed;
+				System.out.printf("%s\t%s\t%d\t%.1f%s%n", engine, integrator, bytes, (double) bytes / steps,
+						passed ? "" : "\tFAILED");
+			}
+		}
+		if(failed) {
+			System.err.println("Stepping allocated more than " + ALLOWED_BYTES + " bytes");
+			System.exit(1);
+		}
+	}
+}
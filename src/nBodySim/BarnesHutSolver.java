@@ -0,0 +1,95 @@
+package nBodySim;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * O(n log n) gravity from a Barnes-Hut quadtree, optionally walking the tree for different
+ * bodies on a fork/join pool
+ * @author andre
+ *
+ */
+public class BarnesHutSolver extends AbstractForceSolver {
+	/**
+	 * The opening angle used when none is given
+	 */
+	public static final double DEFAULT_THETA = 0.5;
+	/**
+	 * The tree, rebuilt every step
+	 */
+	private final BarnesHutTree tree;
+	/**
+	 * Splits the tree walks over a pool, null to walk on the calling thread
+	 */
+	private ParallelForces parallel;
+
+	/**
+	 * Create a solver with the default opening angle
+	 */
+	public BarnesHutSolver() {
+		this(DEFAULT_THETA);
+	}
+
+	/**
+	 * Create a solver with a given opening angle
+	 * @param theta larger is faster and less accurate, 0 is exact
+	 */
+	public BarnesHutSolver(double theta) {
+		tree = new BarnesHutTree(theta);
+	}
+
+	@Override
+	protected long solve(BodyStore bodies, double gravitationalConstant) {
+		tree.build(bodies);
+		if(parallel == null) {
+			long interactions = 0;
+			for(int b = 0; b < bodies.size; b++) {
+				interactions += tree.computeAcceleration(b, gravitationalConstant);
+			}
+			return interactions;
+		}
+		LongAdder interactions = new LongAdder();
+		parallel.run(bodies.size, (from, to) -> {
+			long count = 0;
+			for(int b = from; b < to; b++) {
+				count += tree.computeAcceleration(b, gravitationalConstant);
+			}
+			interactions.add(count);
+		});
+		return interactions.sum();
+	}
+
+	/**
+	 * @return the opening angle
+	 */
+	public double getTheta() {
+		return tree.getTheta();
+	}
+
+	/**
+	 * @param theta the opening angle to set
+	 */
+	public void setTheta(double theta) {
+		tree.setTheta(theta);
+	}
+
+	/**
+	 * Walk the tree for different bodies on a pool
+	 * @param pool the pool, or null to work on the calling thread
+	 */
+	public void setForkJoinPool(ForkJoinPool pool) {
+		parallel = pool == null ? null : new ParallelForces(pool);
+	}
+
+	/**
+	 * @return the tree built by the last step
+	 */
+	public BarnesHutTree getTree() {
+		return tree;
+	}
+
+	@Override
+	public String getName() {
+		return (parallel == null ? "" : "parallel-") + "barnes-hut:" + getTheta();
+	}
+}
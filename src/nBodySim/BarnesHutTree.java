@@ -0,0 +1,262 @@
+package nBodySim;
+
+import java.util.Arrays;
+
+/**
+ * A Barnes-Hut quadtree over the positions in a body store. Distant groups of bodies
+ * are approximated by their total mass at their center of mass, which brings a force
+ * evaluation down to O(log n) per body. Nodes live in parallel arrays that are reused
+ * between builds
+ * @author andre
+ *
+ */
+public class BarnesHutTree {
+	/**
+	 * The deepest a node may be split, bodies that still share a cell at this depth are kept together
+	 */
+	private static final int MAX_DEPTH = 64;
+	/**
+	 * The opening angle, a node is approximated when its width / distance is below this
+	 */
+	private double theta;
+	/**
+	 * The store the tree was last built over
+	 */
+	private BodyStore store;
+
+	/*
+	 * Node arrays. A node is a leaf when its first child is -1, a leaf's bodies are a linked
+	 * list starting at leafHead and following nextInLeaf
+	 */
+	private int nodeCount;
+	private double[] centerX = new double[0];
+	private double[] centerY = new double[0];
+	private double[] halfSize = new double[0];
+	private int[] depth = new int[0];
+	private int[] firstChild = new int[0];
+	private int[] leafHead = new int[0];
+	private int[] leafCount = new int[0];
+	private double[] nodeMass = new double[0];
+	private double[] massX = new double[0];
+	private double[] massY = new double[0];
+	private int[] nextInLeaf = new int[0];
+
+	/**
+	 * Create a tree with a given opening angle
+	 * @param theta
+	 */
+	public BarnesHutTree(double theta) {
+		setTheta(theta);
+	}
+
+	/**
+	 * Rebuild this tree over the bodies in a store
+	 * @param store
+	 */
+	public void build(BodyStore store) {
+		this.store = store;
+		nodeCount = 0;
+		int n = store.size;
+		if(n == 0) {
+			return;
+		}
+		if(nextInLeaf.length < n) {
+			nextInLeaf = new int[Math.max(n, nextInLeaf.length * 2)];
+		}
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for(int i = 0; i < n; i++) {
+			minX = Math.min(minX, store.x[i]);
+			minY = Math.min(minY, store.y[i]);
+			maxX = Math.max(maxX, store.x[i]);
+			maxY = Math.max(maxY, store.y[i]);
+		}
+		double size = Math.max(maxX - minX, maxY - minY) / 2;
+		if(size == 0) {
+			size = 1;
+		}
+		newNode((minX + maxX) / 2, (minY + maxY) / 2, size * 1.0001, 0);
+		for(int i = 0; i < n; i++) {
+			insert(i);
+		}
+		computeMass(0);
+	}
+
+	/**
+	 * Work out the gravitational acceleration on a body from every other body in the tree and
+	 * store it in the body's acceleration. Only the body's own slot is written, so bodies can
+	 * be done on different threads at once
+	 * @param i the index of the body in the store the tree was built over
+	 * @param gravitationalConstant
+	 * @return the number of bodies and cells the body interacted with
+	 */
+	public int computeAcceleration(int i, double gravitationalConstant) {
+		store.ax[i] = 0;
+		store.ay[i] = 0;
+		if(nodeCount == 0) {
+			return 0;
+		}
+		int interactions = accumulate(0, i, store.x[i], store.y[i]);
+		store.ax[i] *= gravitationalConstant;
+		store.ay[i] *= gravitationalConstant;
+		return interactions;
+	}
+
+	/**
+	 * @return the opening angle
+	 */
+	public double getTheta() {
+		return theta;
+	}
+
+	/**
+	 * @param theta the opening angle to set, 0 makes the tree exact
+	 */
+	public void setTheta(double theta) {
+		if(theta < 0) {
+			throw new IllegalArgumentException("Opening angle must not be negative");
+		}
+		this.theta = theta;
+	}
+
+	private int newNode(double cx, double cy, double half, int level) {
+		if(nodeCount == centerX.length) {
+			int capacity = Math.max(64, nodeCount * 2);
+			centerX = Arrays.copyOf(centerX, capacity);
+			centerY = Arrays.copyOf(centerY, capacity);
+			halfSize = Arrays.copyOf(halfSize, capacity);
+			depth = Arrays.copyOf(depth, capacity);
+			firstChild = Arrays.copyOf(firstChild, capacity);
+			leafHead = Arrays.copyOf(leafHead, capacity);
+			leafCount = Arrays.copyOf(leafCount, capacity);
+			nodeMass = Arrays.copyOf(nodeMass, capacity);
+			massX = Arrays.copyOf(massX, capacity);
+			massY = Arrays.copyOf(massY, capacity);
+		}
+		int node = nodeCount++;
+		centerX[node] = cx;
+		centerY[node] = cy;
+		halfSize[node] = half;
+		depth[node] = level;
+		firstChild[node] = -1;
+		leafHead[node] = -1;
+		leafCount[node] = 0;
+		return node;
+	}
+
+	/**
+	 * Put a body into the tree, splitting the leaf it lands in if that leaf already holds one
+	 * @param i
+	 */
+	private void insert(int i) {
+		int node = 0;
+		while(firstChild[node] != -1) {
+			node = childFor(node, i);
+		}
+		nextInLeaf[i] = leafHead[node];
+		leafHead[node] = i;
+		leafCount[node]++;
+		while(leafCount[node] > 1 && depth[node] < MAX_DEPTH) {
+			double quarter = halfSize[node] / 2;
+			int first = nodeCount;
+			for(int c = 0; c < 4; c++) {
+				newNode(centerX[node] + ((c & 1) == 0 ? -quarter : quarter),
+						centerY[node] + ((c & 2) == 0 ? -quarter : quarter), quarter, depth[node] + 1);
+			}
+			firstChild[node] = first;
+			int b = leafHead[node];
+			leafHead[node] = -1;
+			leafCount[node] = 0;
+			while(b != -1) {
+				int next = nextInLeaf[b];
+				int child = childFor(node, b);
+				nextInLeaf[b] = leafHead[child];
+				leafHead[child] = b;
+				leafCount[child]++;
+				b = next;
+			}
+			//Only the child that now holds the new body can need another split
+			node = childFor(node, i);
+		}
+	}
+
+	private int childFor(int node, int i) {
+		int index = firstChild[node];
+		if(store.x[i] >= centerX[node]) {
+			index += 1;
+		}
+		if(store.y[i] >= centerY[node]) {
+			index += 2;
+		}
+		return index;
+	}
+
+	/**
+	 * Fill in the total mass and center of mass of a node and everything below it
+	 * @param node
+	 */
+	private void computeMass(int node) {
+		double m = 0, mx = 0, my = 0;
+		if(firstChild[node] != -1) {
+			for(int c = firstChild[node]; c < firstChild[node] + 4; c++) {
+				computeMass(c);
+				m += nodeMass[c];
+				mx += nodeMass[c] * massX[c];
+				my += nodeMass[c] * massY[c];
+			}
+		}
+		else {
+			for(int b = leafHead[node]; b != -1; b = nextInLeaf[b]) {
+				m += store.mass[b];
+				mx += store.mass[b] * store.x[b];
+				my += store.mass[b] * store.y[b];
+			}
+		}
+		nodeMass[node] = m;
+		massX[node] = m != 0 ? mx / m : centerX[node];
+		massY[node] = m != 0 ? my / m : centerY[node];
+	}
+
+	/**
+	 * Add the acceleration per unit G from a node to the acceleration of body i, at (px, py)
+	 * @return the number of bodies and cells used
+	 */
+	private int accumulate(int node, int i, double px, double py) {
+		if(nodeMass[node] == 0) {
+			return 0;
+		}
+		int interactions = 0;
+		if(firstChild[node] == -1) {
+			for(int b = leafHead[node]; b != -1; b = nextInLeaf[b]) {
+				if(b != i && (store.x[b] != px || store.y[b] != py)) {
+					addAcceleration(i, px, py, store.x[b], store.y[b], store.mass[b]);
+					interactions++;
+				}
+			}
+			return interactions;
+		}
+		double dx = massX[node] - px;
+		double dy = massY[node] - py;
+		double distance = Math.sqrt(dx * dx + dy * dy);
+		//A node around the body itself is always opened, with a wide angle its center of mass can
+		//be far enough away to pass the test while it still holds the body's own mass
+		boolean inside = Math.abs(px - centerX[node]) <= halfSize[node] && Math.abs(py - centerY[node]) <= halfSize[node];
+		if(!inside && 2 * halfSize[node] < theta * distance) {
+			addAcceleration(i, px, py, massX[node], massY[node], nodeMass[node]);
+			return 1;
+		}
+		for(int c = firstChild[node]; c < firstChild[node] + 4; c++) {
+			interactions += accumulate(c, i, px, py);
+		}
+		return interactions;
+	}
+
+	private void addAcceleration(int i, double px, double py, double sx, double sy, double m) {
+		double dx = sx - px;
+		double dy = sy - py;
+		double r = Math.sqrt(dx * dx + dy * dy);
+		double scale = m / (r * r * r);
+		store.ax[i] += dx * scale;
+		store.ay[i] += dy * scale;
+	}
+}
@@ -0,0 +1,268 @@
+package nBodySim;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs universes with no display, for batch jobs on machines without a screen. Nothing from
+ * AWT, Swing or JavaFX is touched, and throughput figures are printed when each run ends
+ * @author andre
+ *
+ */
+public class BatchRunner {
+	/**
+	 * How to call the runner
+	 */
+	private static final String USAGE = "Usage: BatchRunner [options] scenario.txt [scenario.txt ...]\n"
+			+ "  --dt <seconds>          time step (required)\n"
+			+ "  --end <seconds>         time to run to (required)\n"
+			+ "  --engine <name>         force solver, one of direct, parallel, barnes-hut[:theta], parallel-barnes-hut[:theta],\n"
+			+ "                          particle-mesh[:grid], p3m[:grid], fmm[:order], simd, parallel-simd,\n"
+			+ "                          tiled[:tile]\n"
+			+ "  --integrator <name>     euler, leapfrog, velocity_verlet or block_hermite\n"
+			+ "  --out <path>            write the final universe of each run here, a directory when\n"
+			+ "                          there are several scenarios\n"
+			+ "  --trajectory <path>     record positions and velocities here, a directory when there\n"
+			+ "                          are several scenarios\n"
+			+ "  --every <steps>         steps between recorded frames, 1 by default\n"
+			+ "  --checkpoint <path>     save the whole run here every few steps, a directory when there\n"
+			+ "                          are several scenarios. A run whose checkpoint exists carries on\n"
+			+ "                          from it instead of starting again\n"
+			+ "  --checkpoint-every <steps>\n"
+			+ "                          steps between checkpoints, 1000 by default\n"
+			+ "  --quiet                 only print the summary line of each run";
+
+	/**
+	 * The settings of a batch, shared by every scenario in it
+	 */
+	private double deltaTime = Double.NaN;
+	private double endTime = Double.NaN;
+	private String engine = "direct";
+	private Integrator integrator = Integrator.EULER;
+	private String outPath;
+	private String trajectoryPath;
+	private int recordInterval = 1;
+	private String checkpointPath;
+	private int checkpointInterval = 1000;
+	private boolean quiet;
+	private final List<String> scenarios = new ArrayList<String>();
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		BatchRunner runner = new BatchRunner();
+		try {
+			runner.parseArguments(args);
+		} catch(IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		int failures = 0;
+		for(String scenario : runner.scenarios) {
+			try {
+				runner.run(scenario);
+			} catch(IOException | RuntimeException e) {
+				System.err.println(scenario + ": " + e);
+				failures++;
+			}
+		}
+		if(failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Read the options and scenario files from the command line
+	 * @param args
+	 * @throws IllegalArgumentException if the arguments are not valid
+	 */
+	private void parseArguments(String[] args) {
+		for(int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if(!arg.startsWith("--")) {
+				scenarios.add(arg);
+				continue;
+			}
+			if(arg.equals("--quiet")) {
+				quiet = true;
+				continue;
+			}
+			if(i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + arg);
+			}
+			String value = args[++i];
+			switch(arg) {
+			case "--dt":
+				deltaTime = Double.parseDouble(value);
+				break;
+			case "--end":
+				endTime = Double.parseDouble(value);
+				break;
+			case "--engine":
+				ForceSolvers.create(value);
+				engine = value;
+				break;
+			case "--integrator":
+				integrator = Integrator.valueOf(value.toUpperCase());
+				break;
+			case "--out":
+				outPath = value;
+				break;
+			case "--trajectory":
+				trajectoryPath = value;
+				break;
+			case "--checkpoint":
+				checkpointPath = value;
+				break;
+			case "--checkpoint-every":
+				checkpointInterval = Integer.parseInt(value);
+				if(checkpointInterval < 1) {
+					throw new IllegalArgumentException("--checkpoint-every must be at least 1");
+				}
+				break;
+			case "--every":
+				recordInterval = Integer.parseInt(value);
+				if(recordInterval < 1) {
+					throw new IllegalArgumentException("--every must be at least 1");
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		}
+		if(scenarios.isEmpty()) {
+			throw new IllegalArgumentException("No scenario files given");
+		}
+		if(!(deltaTime > 0) || Double.isNaN(endTime)) {
+			throw new IllegalArgumentException("--dt must be positive and --end must be given");
+		}
+	}
+
+	/**
+	 * Run one scenario to the end time and report how fast it went
+	 * @param scenario the scenario file
+	 * @throws IOException if the scenario can not be read or the output can not be written
+	 */
+	private void run(String scenario) throws IOException {
+		String checkpoint = checkpointPath == null ? null : outputFile(checkpointPath, scenario, ".ckpt").getPath();
+		Universe universe;
+		if(checkpoint != null && new File(checkpoint).exists()) {
+			//The checkpoint has the solver and integrator the run started with, keep them so it carries on exactly
+			universe = Checkpoint.load(checkpoint);
+			if(!quiet) {
+				System.out.println(scenario + ": resuming from " + checkpoint + " at step " + universe.getStepCount()
+						+ ", time " + universe.getTime());
+			}
+		}
+		else {
+			universe = UniverseLoader.load(scenario);
+			universe.setForceSolver(ForceSolvers.create(engine));
+			universe.setIntegrator(integrator);
+		}
+		universe.setMaxTime(endTime);
+		int startBodies = universe.getBodyStore().size();
+		TrajectoryRecorder recorder = null;
+		if(trajectoryPath != null) {
+			//Frames from after the step the run carries on from would be recorded twice
+			recorder = new TrajectoryRecorder(outputFile(trajectoryPath, scenario, ".traj").getPath(), recordInterval,
+					universe.getStepCount());
+			universe.setTrajectoryRecorder(recorder);
+		}
+		StepMetrics metrics = universe.getMetrics();
+		metrics.register(scenario);
+
+		//The block timestepper works out its own forces and never calls the solver
+		BlockTimestepper hermite = universe.getIntegrator() == Integrator.BLOCK_HERMITE ? universe.getBlockTimestepper() : null;
+		long steps = 0;
+		long bodySteps = 0;
+		long interactions = 0;
+		long forceNanos = 0;
+		int collisionSteps = 0;
+		long start = System.nanoTime();
+		try {
+			while(universe.continueSimulation()) {
+				int n = universe.getBodyStore().size();
+				long evaluations = hermite == null ? 0 : hermite.getForceEvaluations();
+				bodySteps += n;
+				if(!universe.step(deltaTime)) {
+					collisionSteps++;
+				}
+				if(hermite != null) {
+					//Each evaluation sums over every other body
+					interactions += (hermite.getForceEvaluations() - evaluations) * (n - 1);
+				}
+				else {
+					interactions += universe.getForceSolver().getLastInteractions();
+					forceNanos += universe.getForceSolver().getLastNanos();
+				}
+				steps++;
+				if(checkpoint != null && universe.getStepCount() % checkpointInterval == 0) {
+					long saveStart = metrics.start();
+					Checkpoint.save(universe, checkpoint);
+					metrics.stop(StepMetrics.Phase.IO, saveStart);
+				}
+			}
+		} finally {
+			metrics.unregister();
+			if(recorder != null) {
+				recorder.close();
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		if(outPath != null) {
+			writeUniverse(universe, scenario);
+		}
+		if(!quiet) {
+			System.out.println(scenario + ": " + startBodies + " bodies, " + universe.getBodyStore().size() + " left, engine "
+					+ universe.getForceSolver().getName() + ", integrator " + universe.getIntegrator());
+			if(hermite != null) {
+				System.out.printf("  %d steps, %d steps with collisions, %.3f s wall, forces worked out by the block timestepper%n",
+						steps, collisionSteps, seconds);
+			}
+			else {
+				System.out.printf("  %d steps, %d steps with collisions, %.3f s wall, %.3f s in forces%n",
+						steps, collisionSteps, seconds, forceNanos / 1e9);
+			}
+			if(recorder != null) {
+				System.out.printf("  %d frames recorded, %d dropped%n", recorder.getRecordedFrames(), recorder.getDroppedFrames());
+			}
+			System.out.println("  " + metrics);
+		}
+		System.out.printf("%s\t%.1f steps/s\t%.4g body-steps/s\t%.4g interactions/s%n", scenario,
+				steps / seconds, bodySteps / seconds, interactions / seconds);
+	}
+
+	/**
+	 * Write the final state of a run in the scenario text format
+	 * @param universe
+	 * @param scenario the scenario the universe came from, names the output in a directory
+	 * @throws FileNotFoundException if the output can not be created
+	 */
+	private void writeUniverse(Universe universe, String scenario) throws FileNotFoundException {
+		PrintWriter writer = new PrintWriter(outputFile(outPath, scenario, ""));
+		writer.println(universe);
+		writer.close();
+	}
+
+	/**
+	 * Work out where the output of a scenario goes
+	 * @param path the path given on the command line
+	 * @param scenario
+	 * @param suffix added to the scenario name when the output goes in a directory
+	 * @return path itself, or a file named after the scenario inside it when there are several
+	 * scenarios or path is a directory
+	 */
+	private File outputFile(String path, String scenario, String suffix) {
+		File out = new File(path);
+		if(scenarios.size() > 1 || out.isDirectory()) {
+			out.mkdirs();
+			out = new File(out, new File(scenario).getName() + suffix);
+		}
+		return out;
+	}
+}
@@ -0,0 +1,487 @@
+package nBodySim;
+
+import java.awt.GraphicsEnvironment;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Repeatable timings of the main costs of the simulation, written to JSON so runs can be
+ * compared from one change to the next. Each benchmark is warmed up, then timed over several
+ * iterations of at least a set length, with its state set up again before every iteration and
+ * outside the timing, the same way JMH runs them. Benchmarks:
+ * <ul>
+ * <li>step - one Universe.step</li>
+ * <li>run - a whole run of a scenario, a fixed number of steps from the loaded universe, which is loaded outside the timed part</li>
+ * <li>forces - one acceleration evaluation of the force solver</li>
+ * <li>parse-text, parse-binary - loading a universe from a file</li>
+ * <li>render - taking a snapshot and drawing it, only the snapshot without a display</li>
+ * </ul>
+ * over bundled scenarios and random universes of a range of sizes. Usage: BenchmarkSuite [options]
+ * @author andre
+ *
+ */
+public class BenchmarkSuite {
+	/**
+	 * How to call the suite
+	 */
+	private static final String USAGE = "Usage: BenchmarkSuite [options]\n"
+			+ "  --out <path>            JSON results file, benchmark-results.json by default\n"
+			+ "  --benchmarks <list>     any of step,run,forces,parse-text,parse-binary,render\n"
+			+ "  --scenarios <list>      scenario names in the data directory, or paths\n"
+			+ "  --sizes <list>          body counts of random universes, 100,1000,10000,100000,1000000 by default\n"
+			+ "  --engines <list>        force solvers, direct,barnes-hut by default\n"
+			+ "  --data <dir>            where scenario names are looked up, src/data by default\n"
+			+ "  --warmup <n>            warm up iterations, 2 by default\n"
+			+ "  --iterations <n>        timed iterations, 5 by default\n"
+			+ "  --time <ms>             shortest iteration, 500 by default\n"
+			+ "  --run-steps <n>         steps in a run, 100 by default\n"
+			+ "  --dt <seconds>          time step for step and run, 1e4 by default";
+	/**
+	 * Random universes bigger than this are not given to exact solvers, a single step would take minutes
+	 */
+	private static final int EXACT_SOLVER_LIMIT = 20000;
+	/**
+	 * Random universes bigger than this are not given full runs
+	 */
+	private static final int RUN_LIMIT = 10000;
+
+	/*
+	 * Settings, from the command line
+	 */
+	private String outPath = "benchmark-results.json";
+	private List<String> benchmarks = Arrays.asList("step", "run", "forces", "parse-text", "parse-binary", "render");
+	private List<String> scenarios = Arrays.asList("planets", "galaxy", "sbh2", "chaosblossom");
+	private List<Integer> sizes = Arrays.asList(100, 1000, 10000, 100000, 1000000);
+	private List<String> engines = Arrays.asList("direct", "barnes-hut");
+	private String dataDirectory = "src/data";
+	private int warmupIterations = 2;
+	private int iterations = 5;
+	private long iterationNanos = 500_000_000L;
+	private int runSteps = 100;
+	private double deltaTime = 1e4;
+
+	/**
+	 * The results so far, written out at the end
+	 */
+	private final List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+	/**
+	 * Results of timed operations are added here so the JIT can not throw the work away
+	 */
+	private static volatile double sink;
+
+	/**
+	 * One timed operation, returning anything that depends on its work
+	 */
+	private interface Operation {
+		double run() throws Exception;
+	}
+
+	/**
+	 * Builds the state for an iteration and returns the operation to time on it
+	 */
+	private interface Setup {
+		Operation prepare() throws Exception;
+	}
+
+	/**
+	 * Builds a universe, scenarios reload their file and random universes are made again
+	 */
+	private interface UniverseSource {
+		Universe create() throws IOException;
+	}
+
+	public static void main(String[] args) {
+		BenchmarkSuite suite = new BenchmarkSuite();
+		try {
+			suite.parseArguments(args);
+		} catch(IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		try {
+			suite.runAll();
+			suite.writeJson();
+		} catch(IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+		System.out.println("Results written to " + suite.outPath);
+	}
+
+	private void parseArguments(String[] args) {
+		for(int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if(i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + arg);
+			}
+			String value = args[++i];
+			switch(arg) {
+			case "--out":
+				outPath = value;
+				break;
+			case "--benchmarks":
+				benchmarks = Arrays.asList(value.split(","));
+				break;
+			case "--scenarios":
+				scenarios = value.isEmpty() ? new ArrayList<String>() : Arrays.asList(value.split(","));
+				break;
+			case "--sizes":
+				sizes = new ArrayList<Integer>();
+				for(String size : value.split(",")) {
+					if(!size.isEmpty()) {
+						sizes.add(Integer.parseInt(size));
+					}
+				}
+				break;
+			case "--engines":
+				engines = Arrays.asList(value.split(","));
+				for(String engine : engines) {
+					ForceSolvers.create(engine);
+				}
+				break;
+			case "--data":
+				dataDirectory = value;
+				break;
+			case "--warmup":
+				warmupIterations = Integer.parseInt(value);
+				break;
+			case "--iterations":
+				iterations = Integer.parseInt(value);
+				break;
+			case "--time":
+				iterationNanos = Long.parseLong(value) * 1_000_000L;
+				break;
+			case "--run-steps":
+				runSteps = Integer.parseInt(value);
+				break;
+			case "--dt":
+				deltaTime = Double.parseDouble(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		}
+		if(iterations < 1 || warmupIterations < 0 || runSteps < 1) {
+			throw new IllegalArgumentException("Need at least one iteration and one run step");
+		}
+	}
+
+	private void runAll() throws IOException {
+		for(String scenario : scenarios) {
+			String path = scenarioPath(scenario);
+			String name = new File(path).getName().replaceFirst("\\.txt$", "");
+			Universe loaded = UniverseLoader.load(path);
+			benchmarkUniverse(name, -1, path, () -> UniverseLoader.load(path), loaded);
+		}
+		for(int n : sizes) {
+			File text = File.createTempFile("nbody-bench", ".txt");
+			text.deleteOnExit();
+			Universe random = ScalingBenchmark.randomUniverse(n, 42);
+			BinaryUniverseFormat.writeText(random, text.getPath());
+			benchmarkUniverse("random", n, text.getPath(), () -> ScalingBenchmark.randomUniverse(n, 42), random);
+			text.delete();
+		}
+	}
+
+	/**
+	 * Run every selected benchmark on one universe
+	 * @param scenario the name to report
+	 * @param size the size of a random universe, -1 for a scenario
+	 * @param textPath the universe as a text file
+	 * @param source builds a fresh copy of the universe
+	 * @param universe a copy to take sizes from and write files of
+	 */
+	private void benchmarkUniverse(String scenario, int size, String textPath, UniverseSource source, Universe universe)
+			throws IOException {
+		int n = universe.getBodyStore().size();
+		for(String engine : engines) {
+			Map<String, String> params = params(scenario, n, engine);
+			boolean tooBig = size > EXACT_SOLVER_LIMIT && ForceSolvers.isExact(engine);
+			if(benchmarks.contains("step")) {
+				if(tooBig) {
+					skip("step", params, "exact solver on more than " + EXACT_SOLVER_LIMIT + " bodies");
+				}
+				else {
+					measure("step", params, () -> {
+						Universe u = fresh(source, engine);
+						return () -> {
+							u.step(deltaTime);
+							return u.getBodyStore().getX(0);
+						};
+					});
+				}
+			}
+			if(benchmarks.contains("run")) {
+				if(tooBig || size > RUN_LIMIT) {
+					skip("run", params, "full runs are only timed on scenarios and up to " + RUN_LIMIT + " bodies");
+				}
+				else {
+					//A run uses up its universe, so each one is loaded again outside the timed part
+					measure("run", params, () -> {
+						Universe u = fresh(source, engine);
+						return () -> {
+							for(int s = 0; s < runSteps; s++) {
+								u.step(deltaTime);
+							}
+							return u.getTime();
+						};
+					}, true);
+				}
+			}
+			if(benchmarks.contains("forces")) {
+				if(tooBig) {
+					skip("forces", params, "exact solver on more than " + EXACT_SOLVER_LIMIT + " bodies");
+				}
+				else {
+					measure("forces", params, () -> {
+						Universe u = fresh(source, engine);
+						ForceSolver solver = u.getForceSolver();
+						BodyStore store = u.getBodyStore();
+						return () -> {
+							solver.computeAccelerations(store, u.getGravitationalConstant());
+							return store.getAccelerationX(0);
+						};
+					});
+				}
+			}
+		}
+
+		Map<String, String> params = params(scenario, n, null);
+		if(benchmarks.contains("parse-text")) {
+			measure("parse-text", params, () -> () -> UniverseLoader.load(textPath).getBodyStore().size());
+		}
+		if(benchmarks.contains("parse-binary")) {
+			File binary = File.createTempFile("nbody-bench", ".nbody");
+			binary.deleteOnExit();
+			BinaryUniverseFormat.write(universe, binary.getPath());
+			measure("parse-binary", params, () -> () -> UniverseLoader.load(binary.getPath()).getBodyStore().size());
+			binary.delete();
+		}
+		if(benchmarks.contains("render")) {
+			boolean display = !GraphicsEnvironment.isHeadless();
+			Map<String, String> renderParams = new LinkedHashMap<String, String>(params);
+			renderParams.put("draw", Boolean.toString(display));
+			measure("render", renderParams, () -> () -> {
+				UniverseSnapshot snapshot = universe.snapshot();
+				if(display) {
+					RenderLoop.draw(snapshot);
+				}
+				return snapshot.getX(0);
+			});
+		}
+	}
+
+	private static Universe fresh(UniverseSource source, String engine) throws IOException {
+		Universe universe = source.create();
+		universe.setForceSolver(ForceSolvers.create(engine));
+		universe.setMaxTime(Double.MAX_VALUE);
+		return universe;
+	}
+
+	/**
+	 * Warm up and time one benchmark, print its score and keep the result
+	 */
+	private void measure(String benchmark, Map<String, String> params, Setup setup) {
+		measure(benchmark, params, setup, false);
+	}
+
+	/**
+	 * Warm up and time one benchmark, print its score and keep the result
+	 * @param perOperation prepare again before every operation rather than every iteration, and
+	 * only time the operations
+	 */
+	private void measure(String benchmark, Map<String, String> params, Setup setup, boolean perOperation) {
+		double[] samples = new double[iterations];
+		try {
+			for(int k = 0; k < warmupIterations + iterations; k++) {
+				Operation operation = setup.prepare();
+				long operations = 0;
+				long start = System.nanoTime();
+				long elapsed = 0;
+				do {
+					if(perOperation) {
+						if(operations > 0) {
+							operation = setup.prepare();
+						}
+						start = System.nanoTime();
+						sink += operation.run();
+						elapsed += System.nanoTime() - start;
+					}
+					else {
+						sink += operation.run();
+						elapsed = System.nanoTime() - start;
+					}
+					operations++;
+				} while(elapsed < iterationNanos);
+				if(k >= warmupIterations) {
+					samples[k - warmupIterations] = elapsed / 1e6 / operations;
+				}
+			}
+		} catch(Exception e) {
+			skip(benchmark, params, "failed: " + e);
+			return;
+		}
+		double mean = 0;
+		for(double sample : samples) {
+			mean += sample;
+		}
+		mean /= samples.length;
+		double variance = 0;
+		for(double sample : samples) {
+			variance += (sample - mean) * (sample - mean);
+		}
+		double deviation = samples.length > 1 ? Math.sqrt(variance / (samples.length - 1)) : 0;
+		//Half width of a 99.9% confidence interval, taking the samples as normal
+		double error = 3.29 * deviation / Math.sqrt(samples.length);
+		double[] sorted = samples.clone();
+		Arrays.sort(sorted);
+
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("benchmark", benchmark);
+		result.put("params", params);
+		result.put("mode", "avgt");
+		result.put("unit", "ms/op");
+		result.put("score", mean);
+		result.put("scoreError", error);
+		result.put("min", sorted[0]);
+		result.put("median", sorted[sorted.length / 2]);
+		result.put("max", sorted[sorted.length - 1]);
+		result.put("samples", samples);
+		results.add(result);
+		System.out.printf("%-13s %-60s %12.4f ms/op +- %.4f%n", benchmark, params, mean, error);
+	}
+
+	private void skip(String benchmark, Map<String, String> params, String reason) {
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("benchmark", benchmark);
+		result.put("params", params);
+		result.put("skipped", reason);
+		results.add(result);
+		System.out.printf("%-13s %-60s skipped, %s%n", benchmark, params, reason);
+	}
+
+	private static Map<String, String> params(String scenario, int bodies, String engine) {
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		params.put("scenario", scenario);
+		params.put("bodies", Integer.toString(bodies));
+		if(engine != null) {
+			params.put("engine", engine);
+		}
+		return params;
+	}
+
+	private String scenarioPath(String scenario) {
+		if(new File(scenario).isFile()) {
+			return scenario;
+		}
+		return new File(dataDirectory, scenario.endsWith(".txt") ? scenario : scenario + ".txt").getPath();
+	}
+
+	/**
+	 * Write the settings, the machine and every result as JSON
+	 */
+	private void writeJson() throws IOException {
+		Map<String, Object> settings = new LinkedHashMap<String, Object>();
+		settings.put("warmupIterations", warmupIterations);
+		settings.put("iterations", iterations);
+		settings.put("iterationMillis", iterationNanos / 1_000_000L);
+		settings.put("runSteps", runSteps);
+		settings.put("dt", deltaTime);
+		Map<String, Object> root = new LinkedHashMap<String, Object>();
+		root.put("timestamp", Instant.now().toString());
+		root.put("javaVersion", System.getProperty("java.version"));
+		root.put("vm", System.getProperty("java.vm.name"));
+		root.put("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+		root.put("processors", Runtime.getRuntime().availableProcessors());
+		root.put("settings", settings);
+		root.put("results", results);
+		try(PrintWriter out = new PrintWriter(outPath, "UTF-8")) {
+			StringBuilder json = new StringBuilder();
+			appendJson(json, root, "");
+			out.println(json);
+		}
+	}
+
+	private static void appendJson(StringBuilder json, Object value, String indent) {
+		if(value instanceof Map) {
+			json.append("{");
+			String inner = indent + "\t";
+			boolean first = true;
+			for(Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				json.append(first ? "\n" : ",\n").append(inner);
+				appendString(json, entry.getKey().toString());
+				json.append(": ");
+				appendJson(json, entry.getValue(), inner);
+				first = false;
+			}
+			json.append(first ? "}" : "\n" + indent + "}");
+		}
+		else if(value instanceof List) {
+			json.append("[");
+			String inner = indent + "\t";
+			boolean first = true;
+			for(Object item : (List<?>) value) {
+				json.append(first ? "\n" : ",\n").append(inner);
+				appendJson(json, item, inner);
+				first = false;
+			}
+			json.append(first ? "]" : "\n" + indent + "]");
+		}
+		else if(value instanceof double[]) {
+			json.append("[");
+			double[] values = (double[]) value;
+			for(int k = 0; k < values.length; k++) {
+				json.append(k == 0 ? "" : ", ");
+				appendJson(json, values[k], indent);
+			}
+			json.append("]");
+		}
+		else if(value instanceof Double) {
+			double d = (Double) value;
+			json.append(Double.isFinite(d) ? Double.toString(d) : "null");
+		}
+		else if(value instanceof Number || value instanceof Boolean) {
+			json.append(value);
+		}
+		else {
+			appendString(json, String.valueOf(value));
+		}
+	}
+
+	private static void appendString(StringBuilder json, String s) {
+		json.append('"');
+		for(int k = 0; k < s.length(); k++) {
+			char c = s.charAt(k);
+			switch(c) {
+			case '"':
+				json.append("\\\"");
+				break;
+			case '\\':
+				json.append("\\\\");
+				break;
+			case '\n':
+				json.append("\\n");
+				break;
+			case '\t':
+				json.append("\\t");
+				break;
+			default:
+				if(c < 0x20) {
+					json.append(String.format("\\u%04x", (int) c));
+				}
+				else {
+					json.append(c);
+				}
+			}
+		}
+		json.append('"');
+	}
+}
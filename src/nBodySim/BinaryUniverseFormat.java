@@ -0,0 +1,296 @@
+package nBodySim;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A compact binary form of the universe files. Everything is little-endian:
+ * <pre>
+ * int    magic, "NBDY"
+ * int    format version
+ * int    body count n
+ * int    sprite count s
+ * double radius
+ * double time
+ * s x    int byte length, then the UTF-8 bytes of a sprite file name
+ *        zero padding to a multiple of 8 bytes
+ * n x    double, one column each for x, y, vx, vy, mass and radius
+ * n x    int, the sprite of each body as an index into the sprite table
+ * </pre>
+ * Columns are read in bulk straight into the body store. Body names are not stored, like the
+ * text format they come from the sprite name. Running this class converts a file between the
+ * two formats: BinaryUniverseFormat in out
+ * @author andre
+ *
+ */
+public class BinaryUniverseFormat {
+	/**
+	 * The first four bytes of every binary universe, "NBDY" read as a little-endian int
+	 */
+	public static final int MAGIC = 0x5944424E;
+	/**
+	 * The version this class writes, and the newest it can read
+	 */
+	public static final int VERSION = 1;
+	/**
+	 * The size of the fixed part of the header
+	 */
+	private static final int HEADER_SIZE = 32;
+	/**
+	 * The size of the buffer used to write columns
+	 */
+	private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+	private BinaryUniverseFormat() {
+	}
+
+	public static void main(String[] args) {
+		if(args.length != 2) {
+			System.err.println("Usage: BinaryUniverseFormat in out\n"
+					+ "  converts a text universe to binary, or a binary universe back to text");
+			System.exit(2);
+		}
+		try {
+			if(isBinary(args[0])) {
+				writeText(read(args[0]), args[1]);
+			}
+			else {
+				write(MappedUniverseReader.load(args[0]), args[1]);
+			}
+		} catch(IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @param filePath
+	 * @return whether a file starts with the binary universe magic number
+	 * @throws IOException if the file can not be read
+	 */
+	public static boolean isBinary(String filePath) throws IOException {
+		try(FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			while(magic.hasRemaining() && channel.read(magic) >= 0) {
+			}
+			return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+		}
+	}
+
+	/**
+	 * Read a binary universe
+	 * @param filePath
+	 * @return the universe in the file
+	 * @throws IOException if the file can not be read or is not a binary universe
+	 */
+	public static Universe read(String filePath) throws IOException {
+		try(FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			if(fileSize < HEADER_SIZE) {
+				throw new IOException(filePath + ": too short to be a binary universe");
+			}
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			if(header.getInt() != MAGIC) {
+				throw new IOException(filePath + ": not a binary universe");
+			}
+			int version = header.getInt();
+			if(version < 1 || version > VERSION) {
+				throw new IOException(filePath + ": unsupported binary universe version " + version);
+			}
+			int n = header.getInt();
+			int spriteCount = header.getInt();
+			double radius = header.getDouble();
+			double time = header.getDouble();
+			if(n < 0 || spriteCount < 0) {
+				throw new IOException(filePath + ": bad header");
+			}
+
+			//The string table has no size in the header, so map what is left and walk it
+			long position = HEADER_SIZE;
+			MappedByteBuffer strings = channel.map(FileChannel.MapMode.READ_ONLY, position,
+					Math.min(fileSize - position, Integer.MAX_VALUE));
+			strings.order(ByteOrder.LITTLE_ENDIAN);
+			String[] pictures = new String[spriteCount];
+			String[] names = new String[spriteCount];
+			for(int s = 0; s < spriteCount; s++) {
+				int length = strings.getInt();
+				if(length < 0 || length > strings.remaining()) {
+					throw new IOException(filePath + ": bad sprite table");
+				}
+				byte[] bytes = new byte[length];
+				strings.get(bytes);
+				String sprite = new String(bytes, StandardCharsets.UTF_8);
+				int dot = sprite.indexOf('.');
+				pictures[s] = Body.PICTURE_DIRECTORY + sprite;
+				names[s] = dot < 0 ? sprite : sprite.substring(0, dot);
+			}
+			position = align(position + strings.position());
+			if(position + (6L * Double.BYTES + Integer.BYTES) * n > fileSize) {
+				throw new IOException(filePath + ": file ends before the last body");
+			}
+
+			Universe universe = new Universe(radius);
+			universe.setWorldTime(time);
+			BodyStore store = universe.getBodyStore();
+			store.ensureCapacity(n);
+			for(double[] column : new double[][] { store.x, store.y, store.vx, store.vy, store.mass, store.radius }) {
+				channel.map(FileChannel.MapMode.READ_ONLY, position, (long) Double.BYTES * n)
+						.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(column, 0, n);
+				position += (long) Double.BYTES * n;
+			}
+			int[] sprites = new int[n];
+			channel.map(FileChannel.MapMode.READ_ONLY, position, (long) Integer.BYTES * n)
+					.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(sprites);
+			for(int i = 0; i < n; i++) {
+				int sprite = sprites[i];
+				if(sprite < 0 || sprite >= spriteCount) {
+					throw new IOException(filePath + ": body " + i + " has no sprite " + sprite);
+				}
+				store.pictures[i] = pictures[sprite];
+				store.names[i] = names[sprite];
+				store.ax[i] = 0;
+				store.ay[i] = 0;
+			}
+			store.loaded(n);
+			return universe;
+		}
+	}
+
+	/**
+	 * Write a universe in the binary format
+	 * @param universe
+	 * @param filePath
+	 * @throws IOException if the file can not be written
+	 */
+	public static void write(Universe universe, String filePath) throws IOException {
+		BodyStore store = universe.getBodyStore();
+		int n = store.size;
+		Map<String, Integer> spriteIndex = new HashMap<String, Integer>();
+		int[] sprites = new int[n];
+		ByteBuffer table = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+		for(int i = 0; i < n; i++) {
+			String sprite = spriteName(store.pictures[i]);
+			Integer index = spriteIndex.get(sprite);
+			if(index == null) {
+				index = spriteIndex.size();
+				spriteIndex.put(sprite, index);
+				byte[] bytes = sprite.getBytes(StandardCharsets.UTF_8);
+				if(table.remaining() < Integer.BYTES + bytes.length) {
+					ByteBuffer bigger = ByteBuffer.allocate(2 * (table.capacity() + bytes.length)).order(ByteOrder.LITTLE_ENDIAN);
+					table.flip();
+					bigger.put(table);
+					table = bigger;
+				}
+				table.putInt(bytes.length);
+				table.put(bytes);
+			}
+			sprites[i] = index;
+		}
+
+		Path path = Paths.get(filePath);
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(n);
+			out.putInt(spriteIndex.size());
+			out.putDouble(universe.getRadius());
+			out.putDouble(universe.getTime());
+			table.flip();
+			while(table.hasRemaining()) {
+				int chunk = Math.min(table.remaining(), out.remaining());
+				ByteBuffer slice = table.duplicate();
+				slice.limit(table.position() + chunk);
+				out.put(slice);
+				table.position(table.position() + chunk);
+				if(!out.hasRemaining()) {
+					flush(channel, out);
+				}
+			}
+			long written = HEADER_SIZE + table.limit();
+			if(out.remaining() < Double.BYTES) {
+				flush(channel, out);
+			}
+			for(long pad = align(written) - written; pad > 0; pad--) {
+				out.put((byte) 0);
+			}
+			for(double[] column : new double[][] { store.x, store.y, store.vx, store.vy, store.mass, store.radius }) {
+				for(int i = 0; i < n; ) {
+					if(out.remaining() < Double.BYTES) {
+						flush(channel, out);
+					}
+					int chunk = Math.min(n - i, out.remaining() / Double.BYTES);
+					out.asDoubleBuffer().put(column, i, chunk);
+					out.position(out.position() + chunk * Double.BYTES);
+					i += chunk;
+				}
+			}
+			for(int i = 0; i < n; ) {
+				if(out.remaining() < Integer.BYTES) {
+					flush(channel, out);
+				}
+				int chunk = Math.min(n - i, out.remaining() / Integer.BYTES);
+				out.asIntBuffer().put(sprites, i, chunk);
+				out.position(out.position() + chunk * Integer.BYTES);
+				i += chunk;
+			}
+			flush(channel, out);
+		}
+	}
+
+	/**
+	 * Write a universe in the text format, the same as Universe.toString but streamed so it
+	 * works for any number of bodies
+	 * @param universe
+	 * @param filePath
+	 * @throws IOException if the file can not be written
+	 */
+	public static void writeText(Universe universe, String filePath) throws IOException {
+		BodyStore store = universe.getBodyStore();
+		try(BufferedWriter out = Files.newBufferedWriter(Paths.get(filePath), StandardCharsets.UTF_8)) {
+			out.write(Integer.toString(store.size));
+			out.write('\n');
+			out.write(Double.toString(universe.getRadius()));
+			for(int i = 0; i < store.size; i++) {
+				out.write('\n');
+				out.write(store.x[i] + " " + store.y[i] + " " + store.vx[i] + " " + store.vy[i] + " "
+						+ store.mass[i] + " " + spriteName(store.pictures[i]));
+			}
+			out.write('\n');
+		}
+	}
+
+	/**
+	 * @return a picture path with the picture directory taken off
+	 */
+	private static String spriteName(String picturePath) {
+		if(picturePath == null) {
+			return "";
+		}
+		return picturePath.startsWith(Body.PICTURE_DIRECTORY) ? picturePath.substring(Body.PICTURE_DIRECTORY.length()) : picturePath;
+	}
+
+	private static long align(long position) {
+		return (position + 7) & ~7L;
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer out) throws IOException {
+		out.flip();
+		while(out.hasRemaining()) {
+			channel.write(out);
+		}
+		out.clear();
+	}
+}
@@ -0,0 +1,323 @@
+package nBodySim;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Fourth order Hermite integration with hierarchical block timesteps. Each body gets a step of
+ * the universe step divided by a power of two, picked from its acceleration and jerk, and only
+ * the bodies that are due at a given time have their forces recomputed. Everything else is
+ * predicted forward from its last acceleration and jerk. At the end of a universe step every
+ * body is back in sync
+ * @author andre
+ *
+ */
+public class BlockTimestepper {
+	/**
+	 * The deepest level, a body's step is never smaller than the universe step / 2^MAX_LEVEL
+	 */
+	private static final int MAX_LEVEL = 40;
+	/**
+	 * The accuracy parameter used when none is given
+	 */
+	public static final double DEFAULT_ETA = 0.02;
+	/**
+	 * The accuracy parameter, a body's step is at most eta * |a| / |jerk|
+	 */
+	private double eta;
+
+	/*
+	 * Per-body state. Times are in ticks of the universe step / 2^MAX_LEVEL so they add up exactly
+	 */
+	private long[] bodyTime = new long[0];
+	private int[] level = new int[0];
+	private double[] jx = new double[0];
+	private double[] jy = new double[0];
+	private double[] px = new double[0];
+	private double[] py = new double[0];
+	private double[] pvx = new double[0];
+	private double[] pvy = new double[0];
+	private int[] active = new int[0];
+
+	/**
+	 * The store version and step the levels and jerks were set up for
+	 */
+	private long primedVersion = -1;
+	private double primedStep;
+	/**
+	 * The number of single body force evaluations done so far
+	 */
+	private long forceEvaluations;
+
+	/**
+	 * Create a stepper with the default accuracy
+	 */
+	public BlockTimestepper() {
+		this(DEFAULT_ETA);
+	}
+
+	/**
+	 * Create a stepper with a given accuracy
+	 * @param eta smaller is more accurate and slower
+	 */
+	public BlockTimestepper(double eta) {
+		setEta(eta);
+	}
+
+	/**
+	 * Move every body in a store forward by a time, in as many block substeps as the closest
+	 * encounters need
+	 * @param bodies
+	 * @param deltaTime
+	 * @param gravitationalConstant
+	 */
+	public void step(BodyStore bodies, double deltaTime, double gravitationalConstant) {
+		int n = bodies.size;
+		if(n == 0) {
+			return;
+		}
+		ensureCapacity(bodies.x.length);
+		if(primedVersion != bodies.getVersion() || primedStep != deltaTime) {
+			prime(bodies, deltaTime, gravitationalConstant);
+		}
+		long end = 1L << MAX_LEVEL;
+		double tickLength = deltaTime / end;
+		long now = 0;
+		Arrays.fill(bodyTime, 0, n, 0);
+		while(now < end) {
+			long next = end;
+			for(int i = 0; i < n; i++) {
+				next = Math.min(next, bodyTime[i] + ticks(level[i]));
+			}
+			int activeCount = 0;
+			for(int i = 0; i < n; i++) {
+				if(bodyTime[i] + ticks(level[i]) == next) {
+					active[activeCount++] = i;
+				}
+			}
+			predict(bodies, next, tickLength);
+			for(int k = 0; k < activeCount; k++) {
+				correct(bodies, active[k], tickLength, gravitationalConstant);
+			}
+			for(int k = 0; k < activeCount; k++) {
+				int i = active[k];
+				bodyTime[i] = next;
+				level[i] = nextLevel(bodies, i, level[i], next, deltaTime);
+			}
+			now = next;
+		}
+		primedVersion = bodies.getVersion();
+	}
+
+	/**
+	 * Work out the acceleration and jerk of every body, and the level each one starts at
+	 */
+	private void prime(BodyStore bodies, double deltaTime, double gravitationalConstant) {
+		int n = bodies.size;
+		System.arraycopy(bodies.x, 0, px, 0, n);
+		System.arraycopy(bodies.y, 0, py, 0, n);
+		System.arraycopy(bodies.vx, 0, pvx, 0, n);
+		System.arraycopy(bodies.vy, 0, pvy, 0, n);
+		for(int i = 0; i < n; i++) {
+			accelerationAndJerk(bodies, i, gravitationalConstant);
+		}
+		for(int i = 0; i < n; i++) {
+			double ideal = idealStep(bodies, i);
+			int l = 0;
+			while(l < MAX_LEVEL && deltaTime / (1L << l) > ideal) {
+				l++;
+			}
+			level[i] = l;
+		}
+		primedStep = deltaTime;
+	}
+
+	/**
+	 * Predict the position and velocity of every body at a time from its last acceleration and jerk
+	 */
+	private void predict(BodyStore bodies, long time, double tickLength) {
+		for(int i = 0; i < bodies.size; i++) {
+			double h = (time - bodyTime[i]) * tickLength;
+			double h2 = h * h / 2;
+			double h3 = h2 * h / 3;
+			px[i] = bodies.x[i] + bodies.vx[i] * h + bodies.ax[i] * h2 + jx[i] * h3;
+			py[i] = bodies.y[i] + bodies.vy[i] * h + bodies.ay[i] * h2 + jy[i] * h3;
+			pvx[i] = bodies.vx[i] + bodies.ax[i] * h + jx[i] * h2;
+			pvy[i] = bodies.vy[i] + bodies.ay[i] * h + jy[i] * h2;
+		}
+	}
+
+	/**
+	 * Recompute the force on a due body at the predicted positions and apply the Hermite corrector
+	 */
+	private void correct(BodyStore bodies, int i, double tickLength, double gravitationalConstant) {
+		double h = ticks(level[i]) * tickLength;
+		double ax0 = bodies.ax[i], ay0 = bodies.ay[i], jx0 = jx[i], jy0 = jy[i];
+		double vx0 = bodies.vx[i], vy0 = bodies.vy[i];
+		accelerationAndJerk(bodies, i, gravitationalConstant);
+		double h2 = h * h / 12;
+		bodies.vx[i] = vx0 + (ax0 + bodies.ax[i]) * h / 2 + (jx0 - jx[i]) * h2;
+		bodies.vy[i] = vy0 + (ay0 + bodies.ay[i]) * h / 2 + (jy0 - jy[i]) * h2;
+		bodies.x[i] += (vx0 + bodies.vx[i]) * h / 2 + (ax0 - bodies.ax[i]) * h2;
+		bodies.y[i] += (vy0 + bodies.vy[i]) * h / 2 + (ay0 - bodies.ay[i]) * h2;
+	}
+
+	/**
+	 * Sum the acceleration and jerk on a body from every other body, at the predicted positions
+	 */
+	private void accelerationAndJerk(BodyStore bodies, int i, double gravitationalConstant) {
+		double ax = 0, ay = 0, jerkX = 0, jerkY = 0;
+		double x = px[i], y = py[i], vx = pvx[i], vy = pvy[i];
+		for(int j = 0; j < bodies.size; j++) {
+			double dx = px[j] - x;
+			double dy = py[j] - y;
+			double r2 = dx * dx + dy * dy;
+			if(r2 == 0) {
+				continue;
+			}
+			double dvx = pvx[j] - vx;
+			double dvy = pvy[j] - vy;
+			double inverseR = 1 / Math.sqrt(r2);
+			double gm = gravitationalConstant * bodies.mass[j] * inverseR * inverseR * inverseR;
+			double rv = 3 * (dx * dvx + dy * dvy) / r2;
+			ax += gm * dx;
+			ay += gm * dy;
+			jerkX += gm * (dvx - rv * dx);
+			jerkY += gm * (dvy - rv * dy);
+		}
+		bodies.ax[i] = ax;
+		bodies.ay[i] = ay;
+		jx[i] = jerkX;
+		jy[i] = jerkY;
+		forceEvaluations++;
+	}
+
+	/**
+	 * @return eta * |a| / |jerk| for a body
+	 */
+	private double idealStep(BodyStore bodies, int i) {
+		double a = Math.sqrt(bodies.ax[i] * bodies.ax[i] + bodies.ay[i] * bodies.ay[i]);
+		double j = Math.sqrt(jx[i] * jx[i] + jy[i] * jy[i]);
+		return j == 0 ? Double.POSITIVE_INFINITY : eta * a / j;
+	}
+
+	/**
+	 * Pick the level of a body for its next step. A step can shrink by any power of two, but
+	 * only grows one level at a time and only when the body is in line with the bigger block
+	 */
+	private int nextLevel(BodyStore bodies, int i, int current, long time, double deltaTime) {
+		double ideal = idealStep(bodies, i);
+		int l = current;
+		while(l < MAX_LEVEL && deltaTime / (1L << l) > ideal) {
+			l++;
+		}
+		if(l == current && l > 0 && deltaTime / (1L << (l - 1)) <= ideal && time % ticks(l - 1) == 0) {
+			l--;
+		}
+		return l;
+	}
+
+	private static long ticks(int level) {
+		return 1L << (MAX_LEVEL - level);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if(bodyTime.length >= capacity) {
+			return;
+		}
+		bodyTime = new long[capacity];
+		level = new int[capacity];
+		jx = new double[capacity];
+		jy = new double[capacity];
+		px = new double[capacity];
+		py = new double[capacity];
+		pvx = new double[capacity];
+		pvy = new double[capacity];
+		active = new int[capacity];
+		primedVersion = -1;
+	}
+
+	/**
+	 * Write everything needed to carry on stepping a store exactly as this stepper would
+	 * @param out
+	 * @param bodies the store this stepper has been stepping
+	 * @throws IOException
+	 */
+	void writeState(DataOutput out, BodyStore bodies) throws IOException {
+		boolean primed = primedVersion == bodies.getVersion();
+		out.writeDouble(eta);
+		out.writeLong(forceEvaluations);
+		out.writeBoolean(primed);
+		if(!primed) {
+			return;
+		}
+		out.writeDouble(primedStep);
+		for(int i = 0; i < bodies.size; i++) {
+			out.writeInt(level[i]);
+			out.writeDouble(jx[i]);
+			out.writeDouble(jy[i]);
+		}
+	}
+
+	/**
+	 * Read back the state written by writeState
+	 * @param in
+	 * @param bodies the restored store, with its accelerations already read
+	 * @throws IOException
+	 */
+	void readState(DataInput in, BodyStore bodies) throws IOException {
+		setEta(in.readDouble());
+		forceEvaluations = in.readLong();
+		if(!in.readBoolean()) {
+			return;
+		}
+		ensureCapacity(bodies.x.length);
+		primedStep = in.readDouble();
+		for(int i = 0; i < bodies.size; i++) {
+			level[i] = in.readInt();
+			jx[i] = in.readDouble();
+			jy[i] = in.readDouble();
+		}
+		//Predictions are made fresh every step, so they only need to start at the bodies
+		System.arraycopy(bodies.x, 0, px, 0, bodies.size);
+		System.arraycopy(bodies.y, 0, py, 0, bodies.size);
+		System.arraycopy(bodies.vx, 0, pvx, 0, bodies.size);
+		System.arraycopy(bodies.vy, 0, pvy, 0, bodies.size);
+		primedVersion = bodies.getVersion();
+	}
+
+	/**
+	 * Throw away the levels, accelerations and jerks so they are worked out again next step
+	 */
+	public void reset() {
+		primedVersion = -1;
+	}
+
+	/**
+	 * @return the number of single body force evaluations done so far, a full step of a
+	 * fixed step integrator would be one per body
+	 */
+	public long getForceEvaluations() {
+		return forceEvaluations;
+	}
+
+	/**
+	 * @return the accuracy parameter
+	 */
+	public double getEta() {
+		return eta;
+	}
+
+	/**
+	 * @param eta the accuracy parameter to set
+	 */
+	public void setEta(double eta) {
+		if(eta <= 0) {
+			throw new IllegalArgumentException("Eta must be positive");
+		}
+		this.eta = eta;
+		primedVersion = -1;
+	}
+}
@@ -32,10 +32,22 @@ public class Body {
 	 * The radius of this body, used in calculating collisions
 	 */
 	private double radius;
+	/**
+	 * The directory picture files are read from, put in front of every picture path
+	 */
+	static final String PICTURE_DIRECTORY = "src\\data\\";
 	/**
 	 * The path to the picture that this picture uses, relative to src\data
 	 */
 	private String picturePath;
+	/**
+	 * The store this body is a view of, null if this body holds its own values
+	 */
+	private BodyStore store;
+	/**
+	 * The slot of this body in its store
+	 */
+	private int index = -1;
 	
 	/**
 	 * Create a new body from a name
@@ -85,18 +97,71 @@ public class Body {
 		this.acceleration = acceleration;
 		this.mass = mass;
 		this.radius = radius;
-		this.picturePath = "src\\data\\" + picturePath;
+		this.picturePath = PICTURE_DIRECTORY + picturePath;
 	}
 	
 	/**
-	 * Updat this object with a net force and time change
+	 * Updat this object with a net force and time change, in place without creating any vectors
 	 * @param netForce
 	 * @param deltaTime
 	 */
 	public void update(Vector2D netForce, double deltaTime) {
-		acceleration = Vector2D.scale(netForce.unitVector(), netForce.magnitude() / mass);
-		velocity.add(Vector2D.scale(acceleration.unitVector(), acceleration.magnitude() * deltaTime));
-		position.add(Vector2D.scale(velocity.unitVector(), velocity.magnitude() * deltaTime));
+		if(store != null) {
+			store.update(index, netForce.getX(), netForce.getY(), deltaTime);
+			store.changed();
+			return;
+		}
+		if(acceleration == null) {
+			acceleration = new Vector2D();
+		}
+		acceleration.setX(netForce.getX() / mass);
+		acceleration.setY(netForce.getY() / mass);
+		velocity.setX(velocity.getX() + acceleration.getX() * deltaTime);
+		velocity.setY(velocity.getY() + acceleration.getY() * deltaTime);
+		position.setX(position.getX() + velocity.getX() * deltaTime);
+		position.setY(position.getY() + velocity.getY() * deltaTime);
+	}
+	
+	/**
+	 * Make this body a view of a slot in a store, all reads and writes go to the store from now on
+	 * @param store
+	 * @param index
+	 */
+	void attach(BodyStore store, int index) {
+		this.store = store;
+		this.index = index;
+	}
+	
+	/**
+	 * Copy the values of this body out of its store, so it keeps them once the slot is reused
+	 */
+	void detach() {
+		if(store == null) {
+			return;
+		}
+		name = store.names[index];
+		position = new Vector2D(store.x[index], store.y[index]);
+		velocity = new Vector2D(store.vx[index], store.vy[index]);
+		acceleration = new Vector2D(store.ax[index], store.ay[index]);
+		mass = store.mass[index];
+		radius = store.radius[index];
+		picturePath = store.pictures[index];
+		store = null;
+		index = -1;
+	}
+	
+	/**
+	 * @return the store this body is a view of, or null
+	 */
+	BodyStore getStore() {
+		return store;
+	}
+	
+	/**
+	 * @return the slot of this body in its store, or -1
+	 */
+	int getIndex() {
+		return index;
 	}
 	
 	/**
@@ -116,10 +181,21 @@ public class Body {
 		return new Body(name, position, velocity, acceleration, mass, 1, picPath);
 	}
 	
+	/**
+	 * @return the ID of this body in its store, which stays the same for as long as the body is
+	 * in the store, or -1 if this body is not in a store
+	 */
+	public int getId() {
+		return store != null ? store.ids[index] : -1;
+	}
+	
 	/**
 	 * @return the name
 	 */
 	public String getName() {
+		if(store != null) {
+			return store.names[index];
+		}
 		return name;
 	}
 
@@ -127,13 +203,21 @@ public class Body {
 	 * @param name the name to set
 	 */
 	public void setName(String name) {
+		if(store != null) {
+			store.rename(index, name);
+			return;
+		}
 		this.name = name;
 	}
 
 	/**
-	 * @return the position
+	 * @return the position. For a body in a store this is a copy, changing it does not move the
+	 * body, setPosition does
 	 */
 	public Vector2D getPosition() {
+		if(store != null) {
+			return new Vector2D(store.x[index], store.y[index]);
+		}
 		return position;
 	}
 
@@ -141,13 +225,23 @@ public class Body {
 	 * @param position the position to set
 	 */
 	public void setPosition(Vector2D position) {
+		if(store != null) {
+			store.x[index] = position.getX();
+			store.y[index] = position.getY();
+			store.changed();
+			return;
+		}
 		this.position = position;
 	}
 
 	/**
-	 * @return the velocity
+	 * @return the velocity. For a body in a store this is a copy, changing it does not change the
+	 * body, setVelocity does
 	 */
 	public Vector2D getVelocity() {
+		if(store != null) {
+			return new Vector2D(store.vx[index], store.vy[index]);
+		}
 		return velocity;
 	}
 
@@ -155,13 +249,23 @@ public class Body {
 	 * @param velocity the velocity to set
 	 */
 	public void setVelocity(Vector2D velocity) {
+		if(store != null) {
+			store.vx[index] = velocity.getX();
+			store.vy[index] = velocity.getY();
+			store.changed();
+			return;
+		}
 		this.velocity = velocity;
 	}
 
 	/**
-	 * @return the acceleration
+	 * @return the acceleration. For a body in a store this is a copy, changing it does not change
+	 * the body, setAcceleration does
 	 */
 	public Vector2D getAcceleration() {
+		if(store != null) {
+			return new Vector2D(store.ax[index], store.ay[index]);
+		}
 		return acceleration;
 	}
 
@@ -169,6 +273,12 @@ public class Body {
 	 * @param acceleration the acceleration to set
 	 */
 	public void setAcceleration(Vector2D acceleration) {
+		if(store != null) {
+			store.ax[index] = acceleration.getX();
+			store.ay[index] = acceleration.getY();
+			store.changed();
+			return;
+		}
 		this.acceleration = acceleration;
 	}
 
@@ -176,6 +286,9 @@ public class Body {
 	 * @return the mass
 	 */
 	public double getMass() {
+		if(store != null) {
+			return store.mass[index];
+		}
 		return mass;
 	}
 
@@ -183,6 +296,11 @@ public class Body {
 	 * @param mass the mass to set
 	 */
 	public void setMass(double mass) {
+		if(store != null) {
+			store.mass[index] = mass;
+			store.changed();
+			return;
+		}
 		this.mass = mass;
 	}
 
@@ -190,6 +308,9 @@ public class Body {
 	 * @return the radius
 	 */
 	public double getRadius() {
+		if(store != null) {
+			return store.radius[index];
+		}
 		return radius;
 	}
 
@@ -197,6 +318,11 @@ public class Body {
 	 * @param radius the radius to set
 	 */
 	public void setRadius(double radius) {
+		if(store != null) {
+			store.radius[index] = radius;
+			store.changed();
+			return;
+		}
 		this.radius = radius;
 	}
 
@@ -204,6 +330,9 @@ public class Body {
 	 * @return the picturePath
 	 */
 	public String getPicturePath() {
+		if(store != null) {
+			return store.pictures[index];
+		}
 		return picturePath;
 	}
 
@@ -211,12 +340,19 @@ public class Body {
 	 * @param picturePath the picturePath to set
 	 */
 	public void setPicturePath(String picturePath) {
+		if(store != null) {
+			store.pictures[index] = picturePath;
+			store.changed();
+			return;
+		}
 		this.picturePath = picturePath;
 	}
 
 	@Override
 	public String toString() {
+		Vector2D position = getPosition();
+		Vector2D velocity = getVelocity();
 		return position.getX() + " " + position.getY() + " " + velocity.getX() + " " + velocity.getY() +
-				" " + mass + " " + picturePath.split("\\\\")[2];
+				" " + getMass() + " " + getPicturePath().split("\\\\")[2];
 	}
 }
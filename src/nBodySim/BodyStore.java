@@ -0,0 +1,587 @@
+package nBodySim;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Structure-of-arrays storage for the bodies of a universe. Every physical quantity is kept
+ * in its own primitive array so the force and integration loops walk memory in order, and
+ * Body objects are only created as views onto an index when something asks for them
+ * @author andre
+ *
+ */
+public class BodyStore {
+	/**
+	 * The number of slots allocated when the store is created
+	 */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	double[] x;
+	double[] y;
+	double[] vx;
+	double[] vy;
+	double[] ax;
+	double[] ay;
+	double[] mass;
+	double[] radius;
+	String[] names;
+	String[] pictures;
+	/**
+	 * The ID of each body. IDs are handed out in order and never reused, so they stay with a
+	 * body while the bodies around it are added, removed and merged
+	 */
+	int[] ids;
+	/**
+	 * The ID the next added body gets
+	 */
+	private int nextId;
+	/**
+	 * The index of the body with each ID, -1 once the body is gone
+	 */
+	private int[] indexOfId = new int[DEFAULT_CAPACITY];
+	/**
+	 * The IDs of the bodies with each name, names need not be unique. Null when it has to be
+	 * rebuilt after the columns were filled in directly
+	 */
+	private HashMap<String, NameBucket> nameIndex = new HashMap<String, NameBucket>();
+	/**
+	 * Where the ID of each body sits in its name's bucket, so it can be taken out in constant time
+	 */
+	private int[] namePosition = new int[DEFAULT_CAPACITY];
+	/**
+	 * Body views that have been handed out, by index. Null until asked for
+	 */
+	private Body[] views;
+	/**
+	 * The number of bodies in the store
+	 */
+	int size;
+	/**
+	 * Counts changes made to the bodies from outside the simulation, so cached forces can be thrown away
+	 */
+	private long version;
+
+	/**
+	 * Create an empty store
+	 */
+	public BodyStore() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create an empty store with room for a number of bodies
+	 * @param capacity
+	 */
+	public BodyStore(int capacity) {
+		capacity = Math.max(capacity, 1);
+		x = new double[capacity];
+		y = new double[capacity];
+		vx = new double[capacity];
+		vy = new double[capacity];
+		ax = new double[capacity];
+		ay = new double[capacity];
+		mass = new double[capacity];
+		radius = new double[capacity];
+		names = new String[capacity];
+		pictures = new String[capacity];
+		ids = new int[capacity];
+		views = new Body[capacity];
+	}
+
+	/**
+	 * Copy a body into this store, the body then becomes a view of its slot. A body that is a
+	 * view of another store is let go by that store first, which keeps a body with the same values
+	 * @param b
+	 * @return the index the body was stored at
+	 * @throws IllegalArgumentException if the body is already in this store
+	 */
+	public int add(Body b) {
+		if(b.getStore() == this) {
+			throw new IllegalArgumentException("Body " + b.getName() + " is already in this store");
+		}
+		if(b.getStore() != null) {
+			b.getStore().release(b.getIndex());
+		}
+		ensureCapacity(size + 1);
+		int i = size++;
+		x[i] = b.getPosition() == null ? 0 : b.getPosition().getX();
+		y[i] = b.getPosition() == null ? 0 : b.getPosition().getY();
+		vx[i] = b.getVelocity() == null ? 0 : b.getVelocity().getX();
+		vy[i] = b.getVelocity() == null ? 0 : b.getVelocity().getY();
+		ax[i] = b.getAcceleration() == null ? 0 : b.getAcceleration().getX();
+		ay[i] = b.getAcceleration() == null ? 0 : b.getAcceleration().getY();
+		mass[i] = b.getMass();
+		radius[i] = b.getRadius();
+		names[i] = b.getName();
+		pictures[i] = b.getPicturePath();
+		assignId(i);
+		b.attach(this, i);
+		views[i] = b;
+		version++;
+		return i;
+	}
+
+	/**
+	 * Add a body from its values, without creating a Body for it
+	 * @return the index the body was stored at
+	 */
+	public int add(String name, String picturePath, double px, double py, double velocityX, double velocityY,
+			double bodyMass, double bodyRadius) {
+		ensureCapacity(size + 1);
+		int i = size++;
+		x[i] = px;
+		y[i] = py;
+		vx[i] = velocityX;
+		vy[i] = velocityY;
+		ax[i] = 0;
+		ay[i] = 0;
+		mass[i] = bodyMass;
+		radius[i] = bodyRadius;
+		names[i] = name;
+		pictures[i] = picturePath;
+		assignId(i);
+		views[i] = null;
+		version++;
+		return i;
+	}
+
+	/**
+	 * Remove the body at an index in constant time, by moving the last body into its slot. A
+	 * view of the removed body is detached and keeps the values it had, a view of the moved
+	 * body follows it to its new index
+	 * @param index
+	 */
+	public void remove(int index) {
+		if(index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("No body at index " + index);
+		}
+		discard(index);
+		int last = size - 1;
+		if(index != last) {
+			move(last, index);
+		}
+		clearSlot(last);
+		size--;
+		version++;
+	}
+
+	/**
+	 * Remove every body marked dead in one pass, filling each hole with a live body from the end.
+	 * The marks of the removed slots are cleared
+	 * @param dead dead[i] is true for each index i to remove
+	 * @return the number of bodies removed
+	 */
+	public int removeDead(boolean[] dead) {
+		int n = size;
+		for(int i = 0; i < n; i++) {
+			if(dead[i]) {
+				discard(i);
+			}
+		}
+		int end = n;
+		int i = 0;
+		while(i < end) {
+			if(!dead[i]) {
+				i++;
+				continue;
+			}
+			end--;
+			if(end != i) {
+				//The moved body may be dead too, so look at this slot again
+				move(end, i);
+				dead[i] = dead[end];
+			}
+			dead[end] = false;
+		}
+		for(int k = end; k < n; k++) {
+			clearSlot(k);
+		}
+		size = end;
+		if(end != n) {
+			version++;
+		}
+		return n - end;
+	}
+
+	/**
+	 * Detach the view of a body that is about to be removed and forget its ID and name
+	 */
+	private void discard(int i) {
+		release(i);
+		unindexName(i);
+		indexOfId[ids[i]] = -1;
+	}
+
+	/**
+	 * Stop handing out the view of a slot, the view keeps the values it had and the slot keeps its body
+	 */
+	private void release(int i) {
+		if(views[i] != null) {
+			views[i].detach();
+			views[i] = null;
+		}
+	}
+
+	/**
+	 * Move the body in one slot to another, overwriting what was there
+	 */
+	private void move(int from, int to) {
+		x[to] = x[from];
+		y[to] = y[from];
+		vx[to] = vx[from];
+		vy[to] = vy[from];
+		ax[to] = ax[from];
+		ay[to] = ay[from];
+		mass[to] = mass[from];
+		radius[to] = radius[from];
+		names[to] = names[from];
+		pictures[to] = pictures[from];
+		ids[to] = ids[from];
+		views[to] = views[from];
+		if(indexOfId[ids[to]] == from) {
+			indexOfId[ids[to]] = to;
+		}
+		if(views[to] != null) {
+			views[to].attach(this, to);
+		}
+		views[from] = null;
+	}
+
+	private void clearSlot(int i) {
+		names[i] = null;
+		pictures[i] = null;
+		views[i] = null;
+	}
+
+	/**
+	 * Remove every body, detaching all views
+	 */
+	public void clear() {
+		for(int i = 0; i < size; i++) {
+			if(views[i] != null) {
+				views[i].detach();
+			}
+		}
+		for(int i = 0; i < size; i++) {
+			indexOfId[ids[i]] = -1;
+		}
+		Arrays.fill(names, 0, size, null);
+		Arrays.fill(pictures, 0, size, null);
+		Arrays.fill(views, 0, size, null);
+		nameIndex = new HashMap<String, NameBucket>();
+		size = 0;
+		version++;
+	}
+
+	/**
+	 * Give the body at an index the next ID
+	 */
+	private void assignId(int i) {
+		if(nextId == indexOfId.length) {
+			indexOfId = Arrays.copyOf(indexOfId, nextId * 2);
+			namePosition = Arrays.copyOf(namePosition, nextId * 2);
+		}
+		ids[i] = nextId;
+		indexOfId[nextId] = i;
+		nextId++;
+		indexName(i);
+	}
+
+	private void indexName(int i) {
+		if(nameIndex == null) {
+			return;
+		}
+		NameBucket named = nameIndex.get(names[i]);
+		if(named == null) {
+			named = new NameBucket();
+			nameIndex.put(names[i], named);
+		}
+		namePosition[ids[i]] = named.add(ids[i]);
+	}
+
+	private void unindexName(int i) {
+		if(nameIndex == null) {
+			return;
+		}
+		NameBucket named = nameIndex.get(names[i]);
+		if(named == null) {
+			return;
+		}
+		int moved = named.remove(namePosition[ids[i]]);
+		if(moved != -1) {
+			namePosition[moved] = namePosition[ids[i]];
+		}
+		if(named.size == 0) {
+			nameIndex.remove(names[i]);
+		}
+	}
+
+	/**
+	 * @return the name index, rebuilt first if the columns were filled in directly
+	 */
+	private HashMap<String, NameBucket> nameIndex() {
+		if(nameIndex == null) {
+			nameIndex = new HashMap<String, NameBucket>();
+			for(int i = 0; i < size; i++) {
+				indexName(i);
+			}
+		}
+		return nameIndex;
+	}
+
+	/**
+	 * Change the name of the body at an index
+	 * @param i
+	 * @param name
+	 */
+	void rename(int i, String name) {
+		unindexName(i);
+		names[i] = name;
+		indexName(i);
+		version++;
+	}
+
+	/**
+	 * Take the first n slots of the columns, which were filled in directly by a loader, as the
+	 * bodies of this store and give them new IDs
+	 * @param n
+	 */
+	void loaded(int n) {
+		size = n;
+		nameIndex = null;
+		for(int i = 0; i < n; i++) {
+			assignId(i);
+		}
+		version++;
+	}
+
+	/**
+	 * Take the first n slots of the columns, including their IDs, as the bodies of this store
+	 * @param n
+	 * @param firstFreeId the ID the next added body gets, above every ID in use
+	 */
+	void loaded(int n, int firstFreeId) {
+		size = n;
+		nameIndex = null;
+		nextId = firstFreeId;
+		indexOfId = new int[Math.max(firstFreeId, DEFAULT_CAPACITY)];
+		namePosition = new int[indexOfId.length];
+		Arrays.fill(indexOfId, -1);
+		for(int i = 0; i < n; i++) {
+			if(ids[i] < 0 || ids[i] >= firstFreeId || indexOfId[ids[i]] != -1) {
+				throw new IllegalArgumentException("Body IDs must be unique and below " + firstFreeId);
+			}
+			indexOfId[ids[i]] = i;
+		}
+		version++;
+	}
+
+	/**
+	 * @param id
+	 * @return the index of the body with an ID, or -1 if there is none
+	 */
+	public int indexOfId(int id) {
+		return id >= 0 && id < nextId ? indexOfId[id] : -1;
+	}
+
+	/**
+	 * @param name
+	 * @return the index of a body with a name, or -1 if there is none. When several bodies share
+	 * the name which one is not specified
+	 */
+	public int indexOfName(String name) {
+		NameBucket named = nameIndex().get(name);
+		return named == null ? -1 : indexOfId[named.ids[0]];
+	}
+
+	/**
+	 * @param name
+	 * @return the IDs of every body with a name, in no particular order
+	 */
+	public int[] idsOfName(String name) {
+		NameBucket named = nameIndex().get(name);
+		return named == null ? new int[0] : Arrays.copyOf(named.ids, named.size);
+	}
+
+	/**
+	 * @return the ID the next added body will get, above every ID handed out so far
+	 */
+	public int getNextId() {
+		return nextId;
+	}
+
+	/**
+	 * Move the body at an index forward in time under a net force
+	 * @param i
+	 * @param forceX
+	 * @param forceY
+	 * @param deltaTime
+	 */
+	public void update(int i, double forceX, double forceY, double deltaTime) {
+		ax[i] = forceX / mass[i];
+		ay[i] = forceY / mass[i];
+		vx[i] += ax[i] * deltaTime;
+		vy[i] += ay[i] * deltaTime;
+		x[i] += vx[i] * deltaTime;
+		y[i] += vy[i] * deltaTime;
+	}
+
+	/**
+	 * Get a body that reads and writes through to a slot of this store
+	 * @param index
+	 * @return the view of the body at index
+	 */
+	public Body view(int index) {
+		if(index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("No body at index " + index);
+		}
+		if(views[index] == null) {
+			Body b = new Body(names[index]);
+			b.attach(this, index);
+			views[index] = b;
+		}
+		return views[index];
+	}
+
+	/**
+	 * Copy the values of this store into a new store, with no views handed out
+	 * @return the copy
+	 */
+	public BodyStore copy() {
+		BodyStore copy = new BodyStore(size);
+		System.arraycopy(x, 0, copy.x, 0, size);
+		System.arraycopy(y, 0, copy.y, 0, size);
+		System.arraycopy(vx, 0, copy.vx, 0, size);
+		System.arraycopy(vy, 0, copy.vy, 0, size);
+		System.arraycopy(ax, 0, copy.ax, 0, size);
+		System.arraycopy(ay, 0, copy.ay, 0, size);
+		System.arraycopy(mass, 0, copy.mass, 0, size);
+		System.arraycopy(radius, 0, copy.radius, 0, size);
+		System.arraycopy(names, 0, copy.names, 0, size);
+		System.arraycopy(pictures, 0, copy.pictures, 0, size);
+		System.arraycopy(ids, 0, copy.ids, 0, size);
+		copy.loaded(size, nextId);
+		return copy;
+	}
+
+	/**
+	 * Find the slot of a body
+	 * @param b
+	 * @return the index of b in this store, or -1 if b is not a view of this store
+	 */
+	public int indexOf(Body b) {
+		return b.getStore() == this ? b.getIndex() : -1;
+	}
+
+	/**
+	 * Note that a body has been changed from outside the simulation
+	 */
+	void changed() {
+		version++;
+	}
+
+	/**
+	 * @return a number that changes whenever bodies are added, removed or edited through a view
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the number of bodies in the store
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Make sure there is room for a number of bodies
+	 * @param capacity
+	 */
+	public void ensureCapacity(int capacity) {
+		if(capacity <= x.length) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, x.length * 2);
+		x = Arrays.copyOf(x, newCapacity);
+		y = Arrays.copyOf(y, newCapacity);
+		vx = Arrays.copyOf(vx, newCapacity);
+		vy = Arrays.copyOf(vy, newCapacity);
+		ax = Arrays.copyOf(ax, newCapacity);
+		ay = Arrays.copyOf(ay, newCapacity);
+		mass = Arrays.copyOf(mass, newCapacity);
+		radius = Arrays.copyOf(radius, newCapacity);
+		names = Arrays.copyOf(names, newCapacity);
+		pictures = Arrays.copyOf(pictures, newCapacity);
+		ids = Arrays.copyOf(ids, newCapacity);
+		views = Arrays.copyOf(views, newCapacity);
+	}
+
+	public double getX(int i) {
+		return x[i];
+	}
+	public double getY(int i) {
+		return y[i];
+	}
+	public double getVelocityX(int i) {
+		return vx[i];
+	}
+	public double getVelocityY(int i) {
+		return vy[i];
+	}
+	public double getAccelerationX(int i) {
+		return ax[i];
+	}
+	public double getAccelerationY(int i) {
+		return ay[i];
+	}
+	public double getMass(int i) {
+		return mass[i];
+	}
+	public double getRadius(int i) {
+		return radius[i];
+	}
+	public String getName(int i) {
+		return names[i];
+	}
+	public int getId(int i) {
+		return ids[i];
+	}
+	public String getPicturePath(int i) {
+		return pictures[i];
+	}
+
+	/**
+	 * The IDs of the bodies that share a name, in no particular order
+	 */
+	private static final class NameBucket {
+		int[] ids = new int[1];
+		int size;
+
+		/**
+		 * @param id
+		 * @return the position the ID was put at
+		 */
+		int add(int id) {
+			if(size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+			ids[size] = id;
+			return size++;
+		}
+
+		/**
+		 * Take out the ID at a position by moving the last ID into it
+		 * @param position
+		 * @return the ID that moved into the position, or -1 if it was the last
+		 */
+		int remove(int position) {
+			size--;
+			if(position == size) {
+				return -1;
+			}
+			ids[position] = ids[size];
+			return ids[position];
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package nBodySim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Saves the whole state of a universe so a run can be stopped and carried on later along
+ * exactly the same trajectory. Doubles are written as their raw bits, and the cached
+ * accelerations, the force solver, the integrator and the block timestepper's levels and jerks
+ * are all kept, so a restored universe takes the same steps the original would have. Collisions
+ * are merged within the step that finds them, so none are ever pending between steps.
+ * <p>
+ * The file is a big-endian DataOutput stream: the int magic "NBCK", a format version, the
+ * universe fields, the body store columns and IDs, the block timestepper, then a CRC32 of everything
+ * before it. A checkpoint is written to a temporary file that is moved into place once it is
+ * complete, so a run killed mid-save still leaves the previous checkpoint intact
+ * @author andre
+ *
+ */
+public class Checkpoint {
+	/**
+	 * The first four bytes of every checkpoint, "NBCK"
+	 */
+	public static final int MAGIC = 0x4E42434B;
+	/**
+	 * The version this class writes, and the newest it reads. Version 1 had no body IDs
+	 */
+	public static final int VERSION = 2;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private Checkpoint() {
+	}
+
+	/**
+	 * Save a universe, replacing any checkpoint already at the path
+	 * @param universe
+	 * @param filePath
+	 * @throws IOException if the checkpoint can not be written
+	 */
+	public static void save(Universe universe, String filePath) throws IOException {
+		Path target = Paths.get(filePath);
+		Path temporary = Paths.get(filePath + ".tmp");
+		FileOutputStream file = new FileOutputStream(temporary.toFile());
+		try {
+			CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, BUFFER_SIZE), new CRC32());
+			DataOutputStream out = new DataOutputStream(checked);
+			write(universe, out);
+			out.writeLong(checked.getChecksum().getValue());
+			out.flush();
+			file.getFD().sync();
+		} finally {
+			file.close();
+		}
+		try {
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch(IOException e) {
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Restore a universe from a checkpoint
+	 * @param filePath
+	 * @return the universe as it was when it was saved
+	 * @throws IOException if the file can not be read, is not a checkpoint or is damaged
+	 */
+	public static Universe load(String filePath) throws IOException {
+		try(FileInputStream file = new FileInputStream(filePath)) {
+			CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(file, BUFFER_SIZE), new CRC32());
+			DataInputStream in = new DataInputStream(checked);
+			if(in.readInt() != MAGIC) {
+				throw new IOException(filePath + ": not a checkpoint");
+			}
+			int version = in.readInt();
+			if(version < 1 || version > VERSION) {
+				throw new IOException(filePath + ": unsupported checkpoint version " + version);
+			}
+			Universe universe = read(in, version);
+			long expected = checked.getChecksum().getValue();
+			if(in.readLong() != expected) {
+				throw new IOException(filePath + ": checksum does not match, the checkpoint is damaged");
+			}
+			return universe;
+		} catch(IllegalArgumentException e) {
+			throw new IOException(filePath + ": " + e.getMessage(), e);
+		}
+	}
+
+	private static void write(Universe universe, DataOutputStream out) throws IOException {
+		BodyStore store = universe.getBodyStore();
+		int n = store.size;
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeDouble(universe.getRadius());
+		out.writeDouble(universe.getTime());
+		out.writeDouble(universe.getMaxTime());
+		out.writeLong(universe.getStepCount());
+		out.writeUTF(universe.getForceSolver().getName());
+		out.writeUTF(universe.getIntegrator().name());
+		out.writeBoolean(universe.areForcesCurrent());
+
+		out.writeInt(n);
+		for(double[] column : new double[][] { store.x, store.y, store.vx, store.vy, store.ax, store.ay, store.mass, store.radius }) {
+			for(int i = 0; i < n; i++) {
+				out.writeDouble(column[i]);
+			}
+		}
+		for(String[] column : new String[][] { store.names, store.pictures }) {
+			for(int i = 0; i < n; i++) {
+				writeString(out, column[i]);
+			}
+		}
+		out.writeInt(store.getNextId());
+		for(int i = 0; i < n; i++) {
+			out.writeInt(store.ids[i]);
+		}
+
+		BlockTimestepper stepper = universe.getBlockTimestepperIfCreated();
+		out.writeBoolean(stepper != null);
+		if(stepper != null) {
+			stepper.writeState(out, store);
+		}
+	}
+
+	private static Universe read(DataInputStream in, int version) throws IOException {
+		Universe universe = new Universe(in.readDouble());
+		universe.setWorldTime(in.readDouble());
+		universe.setMaxTime(in.readDouble());
+		universe.setStepCount(in.readLong());
+		universe.setForceSolver(ForceSolvers.create(in.readUTF()));
+		universe.setIntegrator(Integrator.valueOf(in.readUTF()));
+		boolean forcesCurrent = in.readBoolean();
+
+		int n = in.readInt();
+		if(n < 0) {
+			throw new IOException("Bad body count " + n);
+		}
+		BodyStore store = universe.getBodyStore();
+		store.ensureCapacity(n);
+		for(double[] column : new double[][] { store.x, store.y, store.vx, store.vy, store.ax, store.ay, store.mass, store.radius }) {
+			for(int i = 0; i < n; i++) {
+				column[i] = in.readDouble();
+			}
+		}
+		for(String[] column : new String[][] { store.names, store.pictures }) {
+			for(int i = 0; i < n; i++) {
+				column[i] = readString(in);
+			}
+		}
+		if(version >= 2) {
+			int nextId = in.readInt();
+			for(int i = 0; i < n; i++) {
+				store.ids[i] = in.readInt();
+			}
+			store.loaded(n, nextId);
+		}
+		else {
+			store.loaded(n);
+		}
+		if(forcesCurrent) {
+			universe.markForcesCurrent();
+		}
+
+		if(in.readBoolean()) {
+			universe.getBlockTimestepper().readState(in, store);
+		}
+		return universe;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if(value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
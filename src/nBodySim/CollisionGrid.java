@@ -0,0 +1,173 @@
+package nBodySim;
+
+import java.util.Arrays;
+
+/**
+ * A spatial hash over the bodies of a store, used to find touching bodies in close to linear
+ * time. Cells are as wide as the largest body radius, so two bodies can only touch if they sit
+ * in the same or neighbouring cells. The grid is rebuilt from scratch each time it is used and
+ * reuses its arrays between builds
+ * @author andre
+ *
+ */
+public class CollisionGrid {
+	/**
+	 * The width of a cell
+	 */
+	private double cellSize;
+	/**
+	 * The store the grid was last built over
+	 */
+	private BodyStore store;
+	/**
+	 * The number of hash buckets minus one, the bucket count is a power of two
+	 */
+	private int mask;
+	/**
+	 * Where each bucket's bodies start in sorted, bucketStart[mask + 1] is the body count
+	 */
+	private int[] bucketStart = new int[0];
+	/**
+	 * Body indexes, grouped by bucket
+	 */
+	private int[] sorted = new int[0];
+	/**
+	 * The bucket of each body
+	 */
+	private int[] bucketOf = new int[0];
+	/**
+	 * The first bodies of every touching pair found by the last search, and the second bodies
+	 */
+	private int[] pairFirst = new int[16];
+	private int[] pairSecond = new int[16];
+	private int pairCount;
+	/**
+	 * The buckets already searched around the current body
+	 */
+	private final int[] visited = new int[9];
+
+	/**
+	 * Hash the bodies of a store into cells
+	 * @param store
+	 */
+	public void build(BodyStore store) {
+		this.store = store;
+		int n = store.size;
+		double maxRadius = 0;
+		for(int i = 0; i < n; i++) {
+			maxRadius = Math.max(maxRadius, store.radius[i]);
+		}
+		cellSize = maxRadius > 0 ? maxRadius : 1;
+		int buckets = Integer.highestOneBit(Math.max(2 * n, 16) - 1) << 1;
+		mask = buckets - 1;
+		if(bucketStart.length < buckets + 1) {
+			bucketStart = new int[buckets + 1];
+		}
+		if(sorted.length < n) {
+			sorted = new int[store.x.length];
+			bucketOf = new int[store.x.length];
+		}
+		Arrays.fill(bucketStart, 0, buckets + 1, 0);
+		for(int i = 0; i < n; i++) {
+			bucketOf[i] = bucket(cell(store.x[i]), cell(store.y[i]));
+			bucketStart[bucketOf[i] + 1]++;
+		}
+		for(int b = 0; b < buckets; b++) {
+			bucketStart[b + 1] += bucketStart[b];
+		}
+		for(int i = 0; i < n; i++) {
+			sorted[bucketStart[bucketOf[i]]++] = i;
+		}
+		//Filling moved every start up to the next bucket's start, shift them back
+		for(int b = buckets; b > 0; b--) {
+			bucketStart[b] = bucketStart[b - 1];
+		}
+		bucketStart[0] = 0;
+	}
+
+	/**
+	 * Find every pair of bodies closer together than the larger of their radii
+	 * @return the number of pairs found
+	 */
+	public int findTouchingPairs() {
+		pairCount = 0;
+		if(store == null) {
+			return 0;
+		}
+		for(int i = 0; i < store.size; i++) {
+			long cx = cell(store.x[i]);
+			long cy = cell(store.y[i]);
+			int visitedCount = 0;
+			for(long ox = -1; ox <= 1; ox++) {
+				for(long oy = -1; oy <= 1; oy++) {
+					int b = bucket(cx + ox, cy + oy);
+					if(contains(visited, visitedCount, b)) {
+						continue;
+					}
+					visited[visitedCount++] = b;
+					for(int k = bucketStart[b]; k < bucketStart[b + 1]; k++) {
+						int j = sorted[k];
+						if(j > i && touching(i, j)) {
+							addPair(i, j);
+						}
+					}
+				}
+			}
+		}
+		return pairCount;
+	}
+
+	/**
+	 * @param k
+	 * @return the first body of the kth touching pair
+	 */
+	public int getFirst(int k) {
+		return pairFirst[k];
+	}
+
+	/**
+	 * @param k
+	 * @return the second body of the kth touching pair
+	 */
+	public int getSecond(int k) {
+		return pairSecond[k];
+	}
+
+	private boolean touching(int i, int j) {
+		double dx = store.x[i] - store.x[j];
+		double dy = store.y[i] - store.y[j];
+		if(dx == 0 && dy == 0) {
+			return false;
+		}
+		double distance = Math.sqrt(dx * dx + dy * dy);
+		return distance < store.radius[i] || distance < store.radius[j];
+	}
+
+	private void addPair(int i, int j) {
+		if(pairCount == pairFirst.length) {
+			pairFirst = Arrays.copyOf(pairFirst, pairCount * 2);
+			pairSecond = Arrays.copyOf(pairSecond, pairCount * 2);
+		}
+		pairFirst[pairCount] = i;
+		pairSecond[pairCount] = j;
+		pairCount++;
+	}
+
+	private long cell(double position) {
+		return (long) Math.floor(position / cellSize);
+	}
+
+	private int bucket(long cx, long cy) {
+		long hash = cx * 0x9E3779B97F4A7C15L + cy * 0xC2B2AE3D27D4EB4FL;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	private static boolean contains(int[] values, int count, int value) {
+		for(int k = 0; k < count; k++) {
+			if(values[k] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,144 @@
+package nBodySim;
+
+import java.util.Arrays;
+
+/**
+ * Merges every group of touching bodies found by a CollisionGrid in one pass. Touching pairs
+ * are joined with union-find, so a chain of bodies that touch one after another becomes one
+ * group. Each group becomes its heaviest body, which takes the total mass at the group's
+ * center of mass and the velocity that keeps its momentum. The rest are marked dead and the
+ * store is compacted once at the end, so a step costs O(n + pairs) however many bodies merge
+ * @author andre
+ *
+ */
+public class CollisionMerger {
+	/*
+	 * Scratch arrays reused between steps, all indexed by body
+	 */
+	private int[] parent = new int[0];
+	private boolean[] dead = new boolean[0];
+	private boolean[] involved = new boolean[0];
+	private int[] members = new int[0];
+	private int[] heaviest = new int[0];
+	private double[] groupMass = new double[0];
+	private double[] momentumX = new double[0];
+	private double[] momentumY = new double[0];
+	private double[] massX = new double[0];
+	private double[] massY = new double[0];
+
+	/**
+	 * Merge the touching pairs last found by a grid
+	 * @param store the store the grid was built over
+	 * @param grid
+	 * @param pairs the number of pairs the grid found
+	 * @return the number of bodies removed
+	 */
+	public int merge(BodyStore store, CollisionGrid grid, int pairs) {
+		int n = store.size;
+		ensureCapacity(n);
+		int memberCount = 0;
+		for(int k = 0; k < pairs; k++) {
+			int a = grid.getFirst(k);
+			int b = grid.getSecond(k);
+			memberCount = addMember(a, memberCount);
+			memberCount = addMember(b, memberCount);
+			union(a, b);
+		}
+
+		//Total up each group at its root
+		for(int k = 0; k < memberCount; k++) {
+			int root = find(members[k]);
+			groupMass[root] = 0;
+			momentumX[root] = 0;
+			momentumY[root] = 0;
+			massX[root] = 0;
+			massY[root] = 0;
+			heaviest[root] = -1;
+		}
+		for(int k = 0; k < memberCount; k++) {
+			int i = members[k];
+			int root = find(i);
+			double m = store.mass[i];
+			groupMass[root] += m;
+			momentumX[root] += m * store.vx[i];
+			momentumY[root] += m * store.vy[i];
+			massX[root] += m * store.x[i];
+			massY[root] += m * store.y[i];
+			int h = heaviest[root];
+			if(h == -1 || m > store.mass[h] || (m == store.mass[h] && i > h)) {
+				heaviest[root] = i;
+			}
+		}
+
+		//The heaviest body of each group takes on the whole group, the others die
+		for(int k = 0; k < memberCount; k++) {
+			int i = members[k];
+			int root = find(i);
+			int survivor = heaviest[root];
+			if(i != survivor) {
+				dead[i] = true;
+				continue;
+			}
+			double m = groupMass[root];
+			store.mass[i] = m;
+			if(m != 0) {
+				store.vx[i] = momentumX[root] / m;
+				store.vy[i] = momentumY[root] / m;
+				store.x[i] = massX[root] / m;
+				store.y[i] = massY[root] / m;
+			}
+		}
+
+		for(int k = 0; k < memberCount; k++) {
+			int i = members[k];
+			parent[i] = i;
+			involved[i] = false;
+		}
+		return store.removeDead(dead);
+	}
+
+	private int addMember(int i, int memberCount) {
+		if(!involved[i]) {
+			involved[i] = true;
+			members[memberCount++] = i;
+		}
+		return memberCount;
+	}
+
+	private int find(int i) {
+		while(parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	private void union(int a, int b) {
+		int rootA = find(a);
+		int rootB = find(b);
+		if(rootA != rootB) {
+			parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+		}
+	}
+
+	private void ensureCapacity(int n) {
+		if(parent.length >= n) {
+			return;
+		}
+		int capacity = Math.max(n, parent.length * 2);
+		int old = parent.length;
+		parent = Arrays.copyOf(parent, capacity);
+		for(int i = old; i < capacity; i++) {
+			parent[i] = i;
+		}
+		dead = new boolean[capacity];
+		involved = new boolean[capacity];
+		members = new int[capacity];
+		heaviest = new int[capacity];
+		groupMass = new double[capacity];
+		momentumX = new double[capacity];
+		momentumY = new double[capacity];
+		massX = new double[capacity];
+		massY = new double[capacity];
+	}
+}
@@ -0,0 +1,81 @@
+package nBodySim;
+
+/**
+ * Exact O(n^2) gravity, visiting each pair of bodies once and applying equal and opposite
+ * forces to the two. This is the accuracy reference for the approximate solvers
+ * @author andre
+ *
+ */
+public class DirectSumSolver extends AbstractForceSolver {
+
+	@Override
+	protected long solve(BodyStore bodies, double gravitationalConstant) {
+		int n = bodies.size;
+		double[] x = bodies.x, y = bodies.y, mass = bodies.mass, ax = bodies.ax, ay = bodies.ay;
+		for(int i = 0; i < n; i++) {
+			ax[i] = 0;
+			ay[i] = 0;
+		}
+		for(int i = 0; i < n; i++) {
+			double px = x[i];
+			double py = y[i];
+			double gmi = gravitationalConstant * mass[i];
+			double accelerationX = 0;
+			double accelerationY = 0;
+			for(int j = i + 1; j < n; j++) {
+				double dx = x[j] - px;
+				double dy = y[j] - py;
+				double r2 = dx * dx + dy * dy;
+				if(r2 != 0) {
+					double inverseR = 1 / Math.sqrt(r2);
+					double inverseR3 = inverseR * inverseR * inverseR;
+					double gmj = gravitationalConstant * mass[j] * inverseR3;
+					accelerationX += dx * gmj;
+					accelerationY += dy * gmj;
+					ax[j] -= dx * gmi * inverseR3;
+					ay[j] -= dy * gmi * inverseR3;
+				}
+			}
+			ax[i] += accelerationX;
+			ay[i] += accelerationY;
+		}
+		return (long) n * (n - 1) / 2;
+	}
+
+	/**
+	 * Get the net gravitational acceleration of one body, summed over every other body
+	 * @param bodies
+	 * @param b the index of the body
+	 * @param gravitationalConstant
+	 */
+	static void computeAcceleration(BodyStore bodies, int b, double gravitationalConstant) {
+		double[] x = bodies.x, y = bodies.y, mass = bodies.mass;
+		double px = x[b];
+		double py = y[b];
+		double accelerationX = 0;
+		double accelerationY = 0;
+		for(int j = 0; j < bodies.size; j++) {
+			double dx = x[j] - px;
+			double dy = y[j] - py;
+			double r2 = dx * dx + dy * dy;
+			if(r2 != 0) {
+				double inverseR = 1 / Math.sqrt(r2);
+				double scale = gravitationalConstant * mass[j] * inverseR * inverseR * inverseR;
+				accelerationX += dx * scale;
+				accelerationY += dy * scale;
+			}
+		}
+		bodies.ax[b] = accelerationX;
+		bodies.ay[b] = accelerationY;
+	}
+
+	@Override
+	public String getName() {
+		return "direct";
+	}
+
+	@Override
+	public boolean isExact() {
+		return true;
+	}
+}
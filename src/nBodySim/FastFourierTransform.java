@@ -0,0 +1,93 @@
+package nBodySim;
+
+/**
+ * An in-place radix-2 fast Fourier transform of one length, with the bit reversal permutation and
+ * twiddle factors worked out once when it is created. Data is complex, held as separate real and
+ * imaginary arrays
+ * @author andre
+ *
+ */
+public class FastFourierTransform {
+	private final int length;
+	/**
+	 * Where each index is moved to by the bit reversal, only swapped when it is larger
+	 */
+	private final int[] reversed;
+	/**
+	 * cos and sin of 2 pi k / length, for k up to half the length
+	 */
+	private final double[] cos;
+	private final double[] sin;
+
+	/**
+	 * Create a transform
+	 * @param length the number of points, a power of two
+	 * @throws IllegalArgumentException if the length is not a power of two
+	 */
+	public FastFourierTransform(int length) {
+		if(length < 1 || Integer.bitCount(length) != 1) {
+			throw new IllegalArgumentException("FFT length must be a power of two, not " + length);
+		}
+		this.length = length;
+		reversed = new int[length];
+		int bits = Integer.numberOfTrailingZeros(length);
+		for(int i = 0; i < length; i++) {
+			reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+		}
+		cos = new double[length / 2];
+		sin = new double[length / 2];
+		for(int k = 0; k < length / 2; k++) {
+			double angle = 2 * Math.PI * k / length;
+			cos[k] = Math.cos(angle);
+			sin[k] = Math.sin(angle);
+		}
+	}
+
+	/**
+	 * Transform a run of points in place. The inverse is not scaled, so a forward then inverse
+	 * transform multiplies the data by the length
+	 * @param re the real parts
+	 * @param im the imaginary parts
+	 * @param offset the index of the first point in both arrays
+	 * @param inverse true for the inverse transform
+	 */
+	public void transform(double[] re, double[] im, int offset, boolean inverse) {
+		for(int i = 0; i < length; i++) {
+			int j = reversed[i];
+			if(j > i) {
+				double t = re[offset + i];
+				re[offset + i] = re[offset + j];
+				re[offset + j] = t;
+				t = im[offset + i];
+				im[offset + i] = im[offset + j];
+				im[offset + j] = t;
+			}
+		}
+		double sign = inverse ? 1 : -1;
+		for(int size = 2; size <= length; size <<= 1) {
+			int half = size >> 1;
+			int step = length / size;
+			for(int start = offset; start < offset + length; start += size) {
+				for(int k = 0; k < half; k++) {
+					double wr = cos[k * step];
+					double wi = sign * sin[k * step];
+					int a = start + k;
+					int b = a + half;
+					double tr = re[b] * wr - im[b] * wi;
+					double ti = re[b] * wi + im[b] * wr;
+					re[b] = re[a] - tr;
+					im[b] = im[a] - ti;
+					re[a] += tr;
+					im[a] += ti;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of points
+	 */
+	public int getLength() {
+		return length;
+	}
+}
@@ -0,0 +1,573 @@
+package nBodySim;
+
+import java.util.Arrays;
+
+/**
+ * O(n) gravity from the fast multipole method. Bodies are sorted into an adaptive quadtree, each
+ * cell gets a multipole expansion of its mass, and a dual tree walk turns every pair of cells
+ * that are well separated into local expansions of each other's potential, leaving only nearby
+ * leaves to the direct sum. The local expansions are pushed down to the leaves and differentiated
+ * at each body.
+ * <p>
+ * The potential here is 1/r between points in a plane, which is not harmonic in two dimensions,
+ * so the expansions are Cartesian Taylor series rather than complex ones. Derivatives of 1/r come
+ * from the McMurchie-Davidson recurrence. The series are cut off at a total order p, and the error
+ * falls off like ((r_a + r_b) / d)^(p + 1) for two cells of radius r_a and r_b a distance d apart,
+ * so raising p buys accuracy at a cost that grows like p^4
+ * @author andre
+ *
+ */
+public class FastMultipoleSolver extends AbstractForceSolver {
+	/**
+	 * The expansion order used when none is given
+	 */
+	public static final int DEFAULT_ORDER = 6;
+	/**
+	 * The highest expansion order allowed
+	 */
+	public static final int MAX_ORDER = 20;
+	/**
+	 * Two cells interact through their expansions when their radii added together are less than
+	 * this fraction of the distance between them
+	 */
+	private static final double SEPARATION = 0.5;
+	/**
+	 * Cells with this many bodies or fewer are not split
+	 */
+	private static final int LEAF_SIZE = 16;
+	/**
+	 * The deepest a cell may be split, bodies that still share a cell at this depth are kept together
+	 */
+	private static final int MAX_DEPTH = 48;
+
+	private final int order;
+	/**
+	 * The number of coefficients in an expansion, one for each (a, b) with a + b at most the order
+	 */
+	private final int terms;
+	/**
+	 * The powers a and b of each coefficient
+	 */
+	private final int[] powerX;
+	private final int[] powerY;
+	private final double[] inverseFactorial;
+	private final double[][] binomial;
+
+	/*
+	 * Cell arrays. A cell's bodies are [start, end) of the sorted arrays, a leaf has no children and the
+	 * children of a cell are numbered from firstChild on
+	 */
+	private int cellCount;
+	private int[] start = new int[0];
+	private int[] end = new int[0];
+	private int[] firstChild = new int[0];
+	private int[] childCount = new int[0];
+	private double[] centerX = new double[0];
+	private double[] centerY = new double[0];
+	private double[] radius = new double[0];
+	private double[] multipole = new double[0];
+	private double[] local = new double[0];
+
+	/*
+	 * The bodies in tree order
+	 */
+	private int[] bodyOrder = new int[0];
+	private int[] scratch = new int[0];
+	private double[] sortedX = new double[0];
+	private double[] sortedY = new double[0];
+	private double[] sortedMass = new double[0];
+	private double[] sortedAx = new double[0];
+	private double[] sortedAy = new double[0];
+	/*
+	 * Scratch space for splitting a cell, four quadrant counts and five offsets for each depth,
+	 * since a cell's offsets are still needed after its children have been split
+	 */
+	private final int[] quadrantCount = new int[(MAX_DEPTH + 1) * 4];
+	private final int[] quadrantOffset = new int[(MAX_DEPTH + 1) * 5];
+	private final int[] quadrantNext = new int[4];
+
+	/*
+	 * Scratch space for one translation
+	 */
+	private final double[] derivatives;
+	private final double[] auxiliary;
+	private final double[] powersX;
+	private final double[] powersY;
+
+	/**
+	 * The number of expansion and body pairs evaluated by the current step
+	 */
+	private long interactions;
+
+	/**
+	 * Create a solver with the default expansion order
+	 */
+	public FastMultipoleSolver() {
+		this(DEFAULT_ORDER);
+	}
+
+	/**
+	 * Create a solver with a given expansion order
+	 * @param order the highest total order kept, from 0 to MAX_ORDER
+	 */
+	public FastMultipoleSolver(int order) {
+		if(order < 0 || order > MAX_ORDER) {
+			throw new IllegalArgumentException("Expansion order must be from 0 to " + MAX_ORDER + ", not " + order);
+		}
+		this.order = order;
+		terms = (order + 1) * (order + 2) / 2;
+		powerX = new int[terms];
+		powerY = new int[terms];
+		for(int total = 0; total <= order; total++) {
+			for(int b = 0; b <= total; b++) {
+				powerX[index(total - b, b)] = total - b;
+				powerY[index(total - b, b)] = b;
+			}
+		}
+		inverseFactorial = new double[order + 1];
+		binomial = new double[order + 1][order + 1];
+		double factorial = 1;
+		for(int k = 0; k <= order; k++) {
+			factorial *= Math.max(k, 1);
+			inverseFactorial[k] = 1 / factorial;
+			binomial[k][0] = 1;
+			for(int j = 1; j <= k; j++) {
+				binomial[k][j] = binomial[k - 1][j - 1] + (j < k ? binomial[k - 1][j] : 0);
+			}
+		}
+		derivatives = new double[terms];
+		auxiliary = new double[(order + 1) * terms];
+		powersX = new double[order + 1];
+		powersY = new double[order + 1];
+	}
+
+	@Override
+	protected long solve(BodyStore bodies, double gravitationalConstant) {
+		int n = bodies.size;
+		interactions = 0;
+		if(n == 0) {
+			return 0;
+		}
+		build(bodies);
+		for(int cell = cellCount - 1; cell >= 0; cell--) {
+			upward(cell);
+		}
+		Arrays.fill(local, 0, cellCount * terms, 0);
+		interactSelf(0);
+		for(int cell = 0; cell < cellCount; cell++) {
+			downward(cell);
+		}
+		for(int k = 0; k < n; k++) {
+			bodies.ax[bodyOrder[k]] = sortedAx[k] * gravitationalConstant;
+			bodies.ay[bodyOrder[k]] = sortedAy[k] * gravitationalConstant;
+		}
+		return interactions;
+	}
+
+	/**
+	 * @return where the coefficient of x^a y^b is kept
+	 */
+	private static int index(int a, int b) {
+		int total = a + b;
+		return total * (total + 1) / 2 + b;
+	}
+
+	/**
+	 * Sort the bodies into a quadtree
+	 * @param bodies
+	 */
+	private void build(BodyStore bodies) {
+		int n = bodies.size;
+		if(bodyOrder.length < n) {
+			int capacity = Math.max(n, bodyOrder.length * 2);
+			bodyOrder = new int[capacity];
+			scratch = new int[capacity];
+			sortedX = new double[capacity];
+			sortedY = new double[capacity];
+			sortedMass = new double[capacity];
+			sortedAx = new double[capacity];
+			sortedAy = new double[capacity];
+		}
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for(int i = 0; i < n; i++) {
+			bodyOrder[i] = i;
+			minX = Math.min(minX, bodies.x[i]);
+			minY = Math.min(minY, bodies.y[i]);
+			maxX = Math.max(maxX, bodies.x[i]);
+			maxY = Math.max(maxY, bodies.y[i]);
+		}
+		double half = Math.max(maxX - minX, maxY - minY) / 2;
+		if(half == 0) {
+			half = 1;
+		}
+		cellCount = 0;
+		int root = newCells(1);
+		split(bodies, root, 0, n, (minX + maxX) / 2, (minY + maxY) / 2, half * 1.0001, 0);
+		for(int k = 0; k < n; k++) {
+			int i = bodyOrder[k];
+			sortedX[k] = bodies.x[i];
+			sortedY[k] = bodies.y[i];
+			sortedMass[k] = bodies.mass[i];
+			sortedAx[k] = 0;
+			sortedAy[k] = 0;
+		}
+	}
+
+	/**
+	 * Fill in a cell over bodyOrder[from, to) and split it into its non-empty quadrants
+	 */
+	private void split(BodyStore bodies, int cell, int from, int to, double midX, double midY, double half, int depth) {
+		start[cell] = from;
+		end[cell] = to;
+		childCount[cell] = 0;
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for(int k = from; k < to; k++) {
+			int i = bodyOrder[k];
+			minX = Math.min(minX, bodies.x[i]);
+			minY = Math.min(minY, bodies.y[i]);
+			maxX = Math.max(maxX, bodies.x[i]);
+			maxY = Math.max(maxY, bodies.y[i]);
+		}
+		centerX[cell] = (minX + maxX) / 2;
+		centerY[cell] = (minY + maxY) / 2;
+		radius[cell] = Math.hypot(maxX - minX, maxY - minY) / 2;
+		if(to - from <= LEAF_SIZE || depth >= MAX_DEPTH || radius[cell] == 0) {
+			return;
+		}
+
+		//Counting sort the range by quadrant
+		int counts = depth * 4;
+		int offsets = depth * 5;
+		Arrays.fill(quadrantCount, counts, counts + 4, 0);
+		for(int k = from; k < to; k++) {
+			int i = bodyOrder[k];
+			quadrantCount[counts + quadrant(bodies.x[i], bodies.y[i], midX, midY)]++;
+		}
+		quadrantOffset[offsets] = from;
+		int children = 0;
+		for(int q = 0; q < 4; q++) {
+			quadrantOffset[offsets + q + 1] = quadrantOffset[offsets + q] + quadrantCount[counts + q];
+			quadrantNext[q] = quadrantOffset[offsets + q];
+			if(quadrantCount[counts + q] > 0) {
+				children++;
+			}
+		}
+		for(int k = from; k < to; k++) {
+			int i = bodyOrder[k];
+			scratch[quadrantNext[quadrant(bodies.x[i], bodies.y[i], midX, midY)]++] = i;
+		}
+		System.arraycopy(scratch, from, bodyOrder, from, to - from);
+
+		int first = newCells(children);
+		firstChild[cell] = first;
+		childCount[cell] = children;
+		double quarter = half / 2;
+		int child = first;
+		for(int q = 0; q < 4; q++) {
+			if(quadrantCount[counts + q] > 0) {
+				double childX = (q & 1) != 0 ? midX + quarter : midX - quarter;
+				double childY = (q & 2) != 0 ? midY + quarter : midY - quarter;
+				split(bodies, child++, quadrantOffset[offsets + q], quadrantOffset[offsets + q + 1], childX, childY, quarter, depth + 1);
+			}
+		}
+	}
+
+	private static int quadrant(double x, double y, double midX, double midY) {
+		return (x >= midX ? 1 : 0) + (y >= midY ? 2 : 0);
+	}
+
+	/**
+	 * Make room for some more cells
+	 * @return the first of the new cells
+	 */
+	private int newCells(int count) {
+		int first = cellCount;
+		cellCount += count;
+		if(cellCount > start.length) {
+			int capacity = Math.max(cellCount, start.length * 2);
+			start = Arrays.copyOf(start, capacity);
+			end = Arrays.copyOf(end, capacity);
+			firstChild = Arrays.copyOf(firstChild, capacity);
+			childCount = Arrays.copyOf(childCount, capacity);
+			centerX = Arrays.copyOf(centerX, capacity);
+			centerY = Arrays.copyOf(centerY, capacity);
+			radius = Arrays.copyOf(radius, capacity);
+			multipole = new double[capacity * terms];
+			local = new double[capacity * terms];
+		}
+		return first;
+	}
+
+	/**
+	 * Work out a cell's multipole expansion about its center, from its bodies if it is a leaf and
+	 * from its children's expansions otherwise. Children are numbered after their parents, so
+	 * going through the cells backwards does every child first
+	 * @param cell
+	 */
+	private void upward(int cell) {
+		int base = cell * terms;
+		Arrays.fill(multipole, base, base + terms, 0);
+		if(childCount[cell] == 0) {
+			for(int k = start[cell]; k < end[cell]; k++) {
+				powers(centerX[cell] - sortedX[k], centerY[cell] - sortedY[k]);
+				double m = sortedMass[k];
+				for(int t = 0; t < terms; t++) {
+					int a = powerX[t], b = powerY[t];
+					multipole[base + t] += m * powersX[a] * powersY[b] * inverseFactorial[a] * inverseFactorial[b];
+				}
+			}
+			return;
+		}
+		for(int child = firstChild[cell]; child < firstChild[cell] + childCount[cell]; child++) {
+			//A child's bodies are displaced from the parent's center by the shift as well
+			powers(centerX[cell] - centerX[child], centerY[cell] - centerY[child]);
+			int childBase = child * terms;
+			for(int t = 0; t < terms; t++) {
+				int a = powerX[t], b = powerY[t];
+				double sum = 0;
+				for(int i = 0; i <= a; i++) {
+					for(int j = 0; j <= b; j++) {
+						sum += multipole[childBase + index(i, j)] * powersX[a - i] * powersY[b - j]
+								* inverseFactorial[a - i] * inverseFactorial[b - j];
+					}
+				}
+				multipole[base + t] += sum;
+			}
+		}
+	}
+
+	/**
+	 * Pass a cell's local expansion on to its children, or to its bodies if it is a leaf.
+	 * Parents are numbered before their children, so going through the cells in order does every
+	 * parent first
+	 * @param cell
+	 */
+	private void downward(int cell) {
+		int base = cell * terms;
+		if(childCount[cell] == 0) {
+			for(int k = start[cell]; k < end[cell]; k++) {
+				powers(sortedX[k] - centerX[cell], sortedY[k] - centerY[cell]);
+				double gradientX = 0;
+				double gradientY = 0;
+				for(int t = 1; t < terms; t++) {
+					int a = powerX[t], b = powerY[t];
+					double coefficient = local[base + t];
+					if(a > 0) {
+						gradientX += coefficient * a * powersX[a - 1] * powersY[b];
+					}
+					if(b > 0) {
+						gradientY += coefficient * b * powersX[a] * powersY[b - 1];
+					}
+				}
+				sortedAx[k] += gradientX;
+				sortedAy[k] += gradientY;
+			}
+			return;
+		}
+		for(int child = firstChild[cell]; child < firstChild[cell] + childCount[cell]; child++) {
+			powers(centerX[child] - centerX[cell], centerY[child] - centerY[cell]);
+			int childBase = child * terms;
+			for(int t = 0; t < terms; t++) {
+				int a = powerX[t], b = powerY[t];
+				double sum = 0;
+				for(int i = a; i + b <= order; i++) {
+					for(int j = b; i + j <= order; j++) {
+						sum += local[base + index(i, j)] * binomial[i][a] * binomial[j][b] * powersX[i - a] * powersY[j - b];
+					}
+				}
+				local[childBase + t] += sum;
+			}
+		}
+	}
+
+	/**
+	 * Work out all the interactions within one cell
+	 * @param cell
+	 */
+	private void interactSelf(int cell) {
+		if(childCount[cell] == 0) {
+			directWithin(cell);
+			return;
+		}
+		int first = firstChild[cell];
+		int last = first + childCount[cell];
+		for(int a = first; a < last; a++) {
+			interactSelf(a);
+			for(int b = a + 1; b < last; b++) {
+				interact(a, b);
+			}
+		}
+	}
+
+	/**
+	 * Work out the interactions between two different cells, through their expansions when they
+	 * are far enough apart and by splitting the larger one otherwise
+	 * @param a
+	 * @param b
+	 */
+	private void interact(int a, int b) {
+		double dx = centerX[a] - centerX[b];
+		double dy = centerY[a] - centerY[b];
+		double distance = Math.sqrt(dx * dx + dy * dy);
+		if(radius[a] + radius[b] < SEPARATION * distance) {
+			translate(a, b, dx, dy);
+			return;
+		}
+		boolean leafA = childCount[a] == 0;
+		boolean leafB = childCount[b] == 0;
+		if(leafA && leafB) {
+			directBetween(a, b);
+		}
+		else if(leafB || (!leafA && radius[a] >= radius[b])) {
+			for(int child = firstChild[a]; child < firstChild[a] + childCount[a]; child++) {
+				interact(child, b);
+			}
+		}
+		else {
+			for(int child = firstChild[b]; child < firstChild[b] + childCount[b]; child++) {
+				interact(a, child);
+			}
+		}
+	}
+
+	/**
+	 * Add each cell's multipole expansion to the other's local expansion
+	 * @param a
+	 * @param b
+	 * @param dx the x offset of a's center from b's
+	 * @param dy the y offset of a's center from b's
+	 */
+	private void translate(int a, int b, double dx, double dy) {
+		inverseDistanceDerivatives(dx, dy);
+		int baseA = a * terms;
+		int baseB = b * terms;
+		for(int t = 0; t < terms; t++) {
+			int betaX = powerX[t], betaY = powerY[t];
+			double scale = inverseFactorial[betaX] * inverseFactorial[betaY];
+			double intoA = 0;
+			double intoB = 0;
+			for(int s = 0; s < terms; s++) {
+				int alphaX = powerX[s], alphaY = powerY[s];
+				int total = alphaX + alphaY + betaX + betaY;
+				if(total > order) {
+					break;
+				}
+				double derivative = derivatives[index(alphaX + betaX, alphaY + betaY)];
+				intoA += multipole[baseB + s] * derivative;
+				//The derivatives from b to a are those from a to b with odd orders negated
+				intoB += (total % 2 == 0 ? 1 : -1) * multipole[baseA + s] * derivative;
+			}
+			local[baseA + t] += intoA * scale;
+			local[baseB + t] += intoB * scale;
+		}
+		interactions += 2;
+	}
+
+	/**
+	 * Work out the derivatives of 1/r at an offset up to the expansion order, with the
+	 * McMurchie-Davidson recurrence R(n, a + 1, b) = x R(n + 1, a, b) + a R(n + 1, a - 1, b), and
+	 * the same in y, starting from R(n, 0, 0) = (-1)^n (2n - 1)!! / r^(2n + 1)
+	 * @param x
+	 * @param y
+	 */
+	private void inverseDistanceDerivatives(double x, double y) {
+		double inverseR2 = 1 / (x * x + y * y);
+		double value = Math.sqrt(inverseR2);
+		for(int n = 0; n <= order; n++) {
+			auxiliary[n * terms] = value;
+			value *= -(2 * n + 1) * inverseR2;
+		}
+		for(int total = 1; total <= order; total++) {
+			for(int b = 0; b <= total; b++) {
+				int a = total - b;
+				int t = index(a, b);
+				for(int n = 0; n + total <= order; n++) {
+					int above = (n + 1) * terms;
+					double result;
+					if(a > 0) {
+						result = x * auxiliary[above + index(a - 1, b)];
+						if(a > 1) {
+							result += (a - 1) * auxiliary[above + index(a - 2, b)];
+						}
+					}
+					else {
+						result = y * auxiliary[above + index(a, b - 1)];
+						if(b > 1) {
+							result += (b - 1) * auxiliary[above + index(a, b - 2)];
+						}
+					}
+					auxiliary[n * terms + t] = result;
+				}
+			}
+		}
+		System.arraycopy(auxiliary, 0, derivatives, 0, terms);
+	}
+
+	/**
+	 * Fill the powers of an offset up to the expansion order
+	 */
+	private void powers(double x, double y) {
+		powersX[0] = 1;
+		powersY[0] = 1;
+		for(int k = 1; k <= order; k++) {
+			powersX[k] = powersX[k - 1] * x;
+			powersY[k] = powersY[k - 1] * y;
+		}
+	}
+
+	/**
+	 * Add the exact forces between every pair of bodies in a leaf
+	 * @param cell
+	 */
+	private void directWithin(int cell) {
+		for(int i = start[cell]; i < end[cell]; i++) {
+			for(int j = i + 1; j < end[cell]; j++) {
+				pair(i, j);
+			}
+		}
+		long n = end[cell] - start[cell];
+		interactions += n * (n - 1) / 2;
+	}
+
+	/**
+	 * Add the exact forces between the bodies of two leaves
+	 * @param a
+	 * @param b
+	 */
+	private void directBetween(int a, int b) {
+		for(int i = start[a]; i < end[a]; i++) {
+			for(int j = start[b]; j < end[b]; j++) {
+				pair(i, j);
+			}
+		}
+		interactions += (long) (end[a] - start[a]) * (end[b] - start[b]);
+	}
+
+	private void pair(int i, int j) {
+		double dx = sortedX[j] - sortedX[i];
+		double dy = sortedY[j] - sortedY[i];
+		double r2 = dx * dx + dy * dy;
+		if(r2 != 0) {
+			double inverseR = 1 / Math.sqrt(r2);
+			double inverseR3 = inverseR * inverseR * inverseR;
+			sortedAx[i] += dx * sortedMass[j] * inverseR3;
+			sortedAy[i] += dy * sortedMass[j] * inverseR3;
+			sortedAx[j] -= dx * sortedMass[i] * inverseR3;
+			sortedAy[j] -= dy * sortedMass[i] * inverseR3;
+		}
+	}
+
+	/**
+	 * @return the highest total order kept in the expansions
+	 */
+	public int getOrder() {
+		return order;
+	}
+
+	@Override
+	public String getName() {
+		return "fmm:" + order;
+	}
+}
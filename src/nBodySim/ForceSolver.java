@@ -0,0 +1,37 @@
+package nBodySim;
+
+/**
+ * A way of working out the gravitational acceleration of every body in a universe. Solvers
+ * can be swapped on a universe between steps, trading accuracy for speed
+ * @author andre
+ *
+ */
+public interface ForceSolver {
+	/**
+	 * Work out the gravitational acceleration of every body in a store from the current positions,
+	 * and put it in the store's accelerations
+	 * @param bodies
+	 * @param gravitationalConstant
+	 */
+	void computeAccelerations(BodyStore bodies, double gravitationalConstant);
+
+	/**
+	 * @return the name of this solver, as accepted by ForceSolvers.create
+	 */
+	String getName();
+
+	/**
+	 * @return the number of body-body or body-cell interactions evaluated by the last call
+	 */
+	long getLastInteractions();
+
+	/**
+	 * @return how long the last call took, in nanoseconds
+	 */
+	long getLastNanos();
+
+	/**
+	 * @return whether this solver gives the exact pairwise sum, up to rounding
+	 */
+	boolean isExact();
+}
@@ -0,0 +1,235 @@
+package nBodySim;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Creates force solvers by name, and picks the fastest solver that is accurate enough for a
+ * given universe. The vector solvers are loaded by reflection, so this class still works when
+ * the Vector API module is missing, and the first time one is asked for it is checked against
+ * the scalar direct sum on a sample universe. If it can not be loaded, disagrees with the
+ * direct sum or is slower, the scalar solver is used in its place
+ * @author andre
+ *
+ */
+public class ForceSolvers {
+	/**
+	 * The names of every solver that can be created, a tree solver can be given an opening
+	 * angle after a colon, for example barnes-hut:0.7, a mesh solver its grid size, for example
+	 * p3m:512, the multipole solver its expansion order, for example fmm:8, and the tiled direct
+	 * sum its block size, for example tiled:256, which is autotuned when left out
+	 */
+	public static final String[] NAMES = {"direct", "parallel", "barnes-hut", "parallel-barnes-hut", "particle-mesh", "p3m", "fmm", "simd", "parallel-simd", "tiled"};
+
+	/**
+	 * The vector solver's class, which needs the incubating jdk.incubator.vector module
+	 */
+	private static final String SIMD_CLASS = "nBodySim.SimdDirectSolver";
+	/**
+	 * The number of bodies the vector solver is checked on
+	 */
+	private static final int SIMD_CHECK_BODIES = 1024;
+	/**
+	 * The largest relative RMS difference from the direct sum the vector solver may have, it sums
+	 * in a different order so it is not bit for bit the same
+	 */
+	private static final double SIMD_TOLERANCE = 1e-12;
+	/**
+	 * Creates vector solvers on a pool, null when the check has found they can not be used
+	 */
+	private static Constructor<?> simdConstructor;
+	private static boolean simdChecked;
+
+	private ForceSolvers() {
+	}
+
+	/**
+	 * Create a solver from its name
+	 * @param name
+	 * @return the solver
+	 * @throws IllegalArgumentException if there is no solver with that name
+	 */
+	public static ForceSolver create(String name) {
+		String[] parts = name.trim().toLowerCase().split(":", 2);
+		double parameter = parts.length > 1 ? Double.parseDouble(parts[1]) : Double.NaN;
+		switch(parts[0]) {
+		case "direct":
+			return new DirectSumSolver();
+		case "parallel":
+			return new ParallelDirectSolver();
+		case "barnes-hut":
+			return new BarnesHutSolver(Double.isNaN(parameter) ? BarnesHutSolver.DEFAULT_THETA : parameter);
+		case "parallel-barnes-hut":
+			BarnesHutSolver solver = new BarnesHutSolver(Double.isNaN(parameter) ? BarnesHutSolver.DEFAULT_THETA : parameter);
+			solver.setForkJoinPool(ForkJoinPool.commonPool());
+			return solver;
+		case "particle-mesh":
+			return new ParticleMeshSolver(Double.isNaN(parameter) ? ParticleMeshSolver.DEFAULT_GRID_SIZE : (int) parameter);
+		case "p3m":
+			return new P3MSolver(Double.isNaN(parameter) ? ParticleMeshSolver.DEFAULT_GRID_SIZE : (int) parameter);
+		case "fmm":
+			return new FastMultipoleSolver(Double.isNaN(parameter) ? FastMultipoleSolver.DEFAULT_ORDER : (int) parameter);
+		case "tiled":
+			return Double.isNaN(parameter) ? new TiledDirectSolver() : new TiledDirectSolver((int) parameter);
+		case "simd":
+			return isSimdAvailable() ? createSimd(null) : new DirectSumSolver();
+		case "parallel-simd":
+			return isSimdAvailable() ? createSimd(ForkJoinPool.commonPool()) : new ParallelDirectSolver();
+		default:
+			throw new IllegalArgumentException("Unknown force solver " + name + ", expected one of " + Arrays.toString(NAMES));
+		}
+	}
+
+	/**
+	 * Tell whether a solver is exact from its name, without creating it, so nothing is autotuned
+	 * or checked
+	 * @param name
+	 * @return whether the solver of that name gives the direct sum's forces
+	 * @throws IllegalArgumentException if there is no solver with that name
+	 */
+	public static boolean isExact(String name) {
+		switch(name.trim().toLowerCase().split(":", 2)[0]) {
+		case "direct":
+		case "parallel":
+		case "simd":
+		case "parallel-simd":
+		case "tiled":
+			return true;
+		case "barnes-hut":
+		case "parallel-barnes-hut":
+		case "particle-mesh":
+		case "p3m":
+		case "fmm":
+			return false;
+		default:
+			throw new IllegalArgumentException("Unknown force solver " + name + ", expected one of " + Arrays.toString(NAMES));
+		}
+	}
+
+	/**
+	 * Check whether the vector solver can be used, the first time this is called. It must load,
+	 * agree with the direct sum and be faster than it, on one thread, once both have been warmed up
+	 * @return whether simd and parallel-simd give the vector solver rather than the scalar one
+	 */
+	public static synchronized boolean isSimdAvailable() {
+		if(simdChecked) {
+			return simdConstructor != null;
+		}
+		simdChecked = true;
+		try {
+			simdConstructor = Class.forName(SIMD_CLASS).getConstructor(ForkJoinPool.class);
+			ForceSolver simd = createSimd(null);
+			ForceSolver scalar = new DirectSumSolver();
+			BodyStore sample = ScalingBenchmark.randomUniverse(SIMD_CHECK_BODIES, 1).getBodyStore();
+			double gravitationalConstant = new Universe(1).getGravitationalConstant();
+			if(relativeError(sample, simd, gravitationalConstant) > SIMD_TOLERANCE
+					|| fastestNanos(simd, sample) >= fastestNanos(scalar, sample)) {
+				simdConstructor = null;
+			}
+		} catch(ReflectiveOperationException | LinkageError | IllegalStateException e) {
+			//The Vector API module is not there, or the class was left out of the build
+			simdConstructor = null;
+		}
+		return simdConstructor != null;
+	}
+
+	private static ForceSolver createSimd(ForkJoinPool pool) {
+		try {
+			return (ForceSolver) simdConstructor.newInstance(pool);
+		} catch(ReflectiveOperationException e) {
+			throw new IllegalStateException("Could not create the vector solver", e);
+		}
+	}
+
+	/**
+	 * Time a solver on a copy of some bodies, after enough calls for the JIT to have compiled it
+	 * @return the fastest of the timed calls, in nanoseconds
+	 */
+	private static long fastestNanos(ForceSolver solver, BodyStore bodies) {
+		BodyStore trial = bodies.copy();
+		long fastest = Long.MAX_VALUE;
+		for(int call = 0; call < 40; call++) {
+			solver.computeAccelerations(trial, 1);
+			if(call >= 30) {
+				fastest = Math.min(fastest, solver.getLastNanos());
+			}
+		}
+		return fastest;
+	}
+
+	/**
+	 * @return one solver of each kind, with default settings
+	 */
+	public static List<ForceSolver> createAll() {
+		List<ForceSolver> solvers = new ArrayList<ForceSolver>();
+		for(String name : NAMES) {
+			solvers.add(create(name));
+		}
+		return solvers;
+	}
+
+	/**
+	 * Get the RMS error of a solver's accelerations against the exact direct sum, relative to the
+	 * RMS of the exact accelerations
+	 * @param bodies the bodies to test on, left unchanged
+	 * @param solver
+	 * @param gravitationalConstant
+	 * @return the relative RMS error
+	 */
+	public static double relativeError(BodyStore bodies, ForceSolver solver, double gravitationalConstant) {
+		BodyStore exact = bodies.copy();
+		new DirectSumSolver().computeAccelerations(exact, gravitationalConstant);
+		BodyStore approximate = bodies.copy();
+		solver.computeAccelerations(approximate, gravitationalConstant);
+		return relativeError(exact, approximate);
+	}
+
+	/**
+	 * Get the RMS difference between the accelerations of two stores, relative to the RMS of the first
+	 * @param exact
+	 * @param approximate
+	 * @return the relative RMS error
+	 */
+	static double relativeError(BodyStore exact, BodyStore approximate) {
+		double error = 0;
+		double norm = 0;
+		for(int i = 0; i < exact.size; i++) {
+			double dx = approximate.ax[i] - exact.ax[i];
+			double dy = approximate.ay[i] - exact.ay[i];
+			error += dx * dx + dy * dy;
+			norm += exact.ax[i] * exact.ax[i] + exact.ay[i] * exact.ay[i];
+		}
+		return norm == 0 ? Math.sqrt(error) : Math.sqrt(error / norm);
+	}
+
+	/**
+	 * Time each candidate on a copy of some bodies and pick the fastest one whose error against
+	 * the direct sum is within a tolerance. The direct sum is the fallback
+	 * @param bodies the bodies to test on, left unchanged
+	 * @param candidates
+	 * @param gravitationalConstant
+	 * @param tolerance the largest relative RMS error allowed
+	 * @return the fastest accurate enough solver
+	 */
+	public static ForceSolver selectFastest(BodyStore bodies, List<ForceSolver> candidates, double gravitationalConstant, double tolerance) {
+		BodyStore exact = bodies.copy();
+		ForceSolver best = new DirectSumSolver();
+		best.computeAccelerations(exact, gravitationalConstant);
+		best.computeAccelerations(exact, gravitationalConstant);
+		long bestNanos = best.getLastNanos();
+		for(ForceSolver candidate : candidates) {
+			BodyStore trial = bodies.copy();
+			//The first call warms up the solver, the second one is timed
+			candidate.computeAccelerations(trial, gravitationalConstant);
+			candidate.computeAccelerations(trial, gravitationalConstant);
+			if(candidate.getLastNanos() < bestNanos && relativeError(exact, trial) <= tolerance) {
+				best = candidate;
+				bestNanos = candidate.getLastNanos();
+			}
+		}
+		return best;
+	}
+}
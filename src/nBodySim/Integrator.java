@@ -0,0 +1,31 @@
+package nBodySim;
+
+/**
+ * The ways a universe can move its bodies forward in time
+ * @author andre
+ *
+ */
+public enum Integrator {
+	/**
+	 * Kick the velocity with the acceleration at the start of the step, then drift the position
+	 * with the new velocity. One force evaluation per step, first order
+	 */
+	EULER,
+	/**
+	 * Kick-drift-kick leapfrog. Half a kick from the old acceleration, a full drift, then half a
+	 * kick from the new acceleration. Symplectic and second order, with one force evaluation per step
+	 */
+	LEAPFROG,
+	/**
+	 * Velocity Verlet. The position moves with the old velocity and acceleration, then the velocity
+	 * moves with the average of the old and new accelerations. Symplectic and second order, with one
+	 * force evaluation per step
+	 */
+	VELOCITY_VERLET,
+	/**
+	 * Fourth order Hermite with hierarchical power of two block timesteps per body, see
+	 * BlockTimestepper. Forces come from its own direct sum of acceleration and jerk, not
+	 * from the universe's force solver
+	 */
+	BLOCK_HERMITE
+}
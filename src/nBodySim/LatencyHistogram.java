@@ -0,0 +1,124 @@
+package nBodySim;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds with logarithmic buckets, eight to each power of two,
+ * so any percentile is known to within about 6% in a fixed 4 KB however many values are
+ * recorded. Values can be recorded from several threads at once without locking
+ * @author andre
+ *
+ */
+public class LatencyHistogram {
+	/**
+	 * Buckets per power of two, as a power of two
+	 */
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Add a duration
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+		if(nanos < 0) {
+			nanos = 0;
+		}
+		counts.incrementAndGet(bucket(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long highest = max.get();
+		while(nanos > highest && !max.compareAndSet(highest, nanos)) {
+			highest = max.get();
+		}
+	}
+
+	/**
+	 * @param fraction between 0 and 1, 0.5 for the median
+	 * @return the duration that this fraction of the recorded ones are at or below, 0 if none
+	 * have been recorded
+	 */
+	public double getPercentile(double fraction) {
+		long n = count.get();
+		if(n == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(fraction * n));
+		long seen = 0;
+		for(int b = 0; b < BUCKETS; b++) {
+			seen += counts.get(b);
+			if(seen >= target) {
+				return Math.min(middle(b), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * @return the number of durations recorded
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the sum of the durations recorded, in nanoseconds
+	 */
+	public long getTotal() {
+		return total.get();
+	}
+
+	/**
+	 * @return the mean duration, 0 if none have been recorded
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) total.get() / n;
+	}
+
+	/**
+	 * @return the longest duration recorded
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Forget every recorded duration
+	 */
+	public void reset() {
+		for(int b = 0; b < BUCKETS; b++) {
+			counts.set(b, 0);
+		}
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+	private static int bucket(long nanos) {
+		if(nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + (int) ((nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * @return the middle of the range of durations that fall in a bucket
+	 */
+	private static double middle(int bucket) {
+		if(bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lower + (1L << shift) / 2.0;
+	}
+}
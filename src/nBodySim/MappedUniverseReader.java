@@ -0,0 +1,389 @@
+package nBodySim;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads universe text files by memory mapping them and parsing numbers straight out of the
+ * mapped bytes. No line or token Strings are made, bodies go straight into the store and the
+ * picture paths and body names, which repeat on almost every line, are shared. Accepts the same format as the
+ * files in src\data: the body count, the radius, then one body per line as
+ * x y vx vy mass picture, with blank lines skipped and anything after the last body ignored.
+ * Lines may end in \n or \r\n
+ * @author andre
+ *
+ */
+public class MappedUniverseReader {
+	/**
+	 * The most bytes mapped at once. Bigger files are mapped a window at a time
+	 */
+	private static final long WINDOW_SIZE = 1L << 30;
+	/**
+	 * The longest line that is guaranteed to fit in a window
+	 */
+	private static final int MAX_LINE = 1 << 16;
+	/**
+	 * Exact powers of ten, every one of them is a double with no rounding
+	 */
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private final String filePath;
+	private final FileChannel channel;
+	private final long fileSize;
+	private MappedByteBuffer buffer;
+	/**
+	 * Where the mapped window starts in the file
+	 */
+	private long windowStart;
+	private int lineNumber = 1;
+	/**
+	 * Picture paths seen so far and the body names made from them, an open addressed table
+	 * keyed by the hash of the picture column's bytes
+	 */
+	private String[] pictureTable = new String[64];
+	private int[] pictureHashes = new int[64];
+	private String[] nameTable = new String[64];
+	private int pictureCount;
+	/**
+	 * The slot of the picture last returned by parsePicture
+	 */
+	private int lastPicture;
+
+	private MappedUniverseReader(String filePath, FileChannel channel) throws IOException {
+		this.filePath = filePath;
+		this.channel = channel;
+		this.fileSize = channel.size();
+		map(0);
+	}
+
+	/**
+	 * Read a universe from a text file
+	 * @param filePath
+	 * @return the universe represented by the file
+	 * @throws IOException if the file can not be read or is not a universe
+	 */
+	public static Universe load(String filePath) throws IOException {
+		try(FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+			return new MappedUniverseReader(filePath, channel).read();
+		}
+	}
+
+	private Universe read() throws IOException {
+		skipBlankLines();
+		long count = parseLong();
+		endLine();
+		skipBlankLines();
+		double radius = parseDouble();
+		endLine();
+		if(count < 0 || count > Integer.MAX_VALUE) {
+			throw error("Bad body count " + count);
+		}
+		Universe universe = new Universe(radius);
+		BodyStore store = universe.getBodyStore();
+		store.ensureCapacity((int) count);
+		for(int i = 0; i < count; i++) {
+			skipBlankLines();
+			if(atEnd()) {
+				//Like the Scanner loader, a file that runs out early just has fewer bodies
+				break;
+			}
+			double x = parseDouble();
+			double y = parseDouble();
+			double vx = parseDouble();
+			double vy = parseDouble();
+			double mass = parseDouble();
+			String picture = parsePicture();
+			store.add(nameTable[lastPicture], picture, x, y, vx, vy, mass, 1);
+			skipLine();
+		}
+		return universe;
+	}
+
+	/**
+	 * Map the window of the file starting at a position
+	 */
+	private void map(long start) throws IOException {
+		windowStart = start;
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, fileSize - start));
+	}
+
+	/**
+	 * Called at the start of a line, moves the window on if the line might run off its end
+	 */
+	private void ensureLine() throws IOException {
+		if(windowStart + buffer.limit() < fileSize && buffer.remaining() < MAX_LINE) {
+			map(windowStart + buffer.position());
+		}
+	}
+
+	private boolean atEnd() {
+		return !buffer.hasRemaining();
+	}
+
+	private byte peek() {
+		return buffer.get(buffer.position());
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\f';
+	}
+
+	private void skipSpaces() {
+		while(buffer.hasRemaining() && isSpace(peek())) {
+			buffer.get();
+		}
+	}
+
+	private void skipBlankLines() throws IOException {
+		ensureLine();
+		while(true) {
+			int start = buffer.position();
+			skipSpaces();
+			if(buffer.hasRemaining() && peek() == '\n') {
+				buffer.get();
+				lineNumber++;
+				ensureLine();
+				continue;
+			}
+			buffer.position(start);
+			skipSpaces();
+			return;
+		}
+	}
+
+	/**
+	 * Skip whatever is left of the current line, a body line may have extra columns
+	 */
+	private void skipLine() {
+		while(buffer.hasRemaining()) {
+			if(buffer.get() == '\n') {
+				lineNumber++;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Make sure nothing but spaces is left on the current line, then move past it
+	 */
+	private void endLine() throws IOException {
+		skipSpaces();
+		if(buffer.hasRemaining() && peek() != '\n') {
+			throw error("Unexpected text after value");
+		}
+		skipLine();
+	}
+
+	private int tokenEnd() {
+		int end = buffer.position();
+		while(end < buffer.limit()) {
+			byte b = buffer.get(end);
+			if(b == '\n' || isSpace(b)) {
+				break;
+			}
+			end++;
+		}
+		return end;
+	}
+
+	private long parseLong() throws IOException {
+		skipSpaces();
+		int start = buffer.position();
+		int end = tokenEnd();
+		int p = start;
+		boolean negative = false;
+		if(p < end && (buffer.get(p) == '-' || buffer.get(p) == '+')) {
+			negative = buffer.get(p++) == '-';
+		}
+		if(p == end || end - p > 18) {
+			throw error("Bad whole number '" + text(start, end) + "'");
+		}
+		long value = 0;
+		for(; p < end; p++) {
+			int digit = buffer.get(p) - '0';
+			if(digit < 0 || digit > 9) {
+				throw error("Bad whole number '" + text(start, end) + "'");
+			}
+			value = value * 10 + digit;
+		}
+		buffer.position(end);
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parse the next number on the line. Numbers with at most 15 significant digits and a
+	 * power of ten no bigger than 22 are one exact multiply or divide of two doubles, so they
+	 * round correctly. Anything else, including NaN and Infinity, goes to Double.parseDouble
+	 */
+	private double parseDouble() throws IOException {
+		skipSpaces();
+		int start = buffer.position();
+		int end = tokenEnd();
+		if(start == end) {
+			throw error("Missing number");
+		}
+		int p = start;
+		boolean negative = false;
+		if(buffer.get(p) == '-' || buffer.get(p) == '+') {
+			negative = buffer.get(p++) == '-';
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean anyDigits = false;
+		boolean fast = true;
+		for(; p < end; p++) {
+			int digit = buffer.get(p) - '0';
+			if(digit < 0 || digit > 9) {
+				break;
+			}
+			anyDigits = true;
+			if(mantissa != 0 || digit != 0) {
+				if(++digits > 15) {
+					fast = false;
+				}
+				mantissa = mantissa * 10 + digit;
+			}
+		}
+		if(p < end && buffer.get(p) == '.') {
+			for(p++; p < end; p++) {
+				int digit = buffer.get(p) - '0';
+				if(digit < 0 || digit > 9) {
+					break;
+				}
+				anyDigits = true;
+				if(mantissa != 0 || digit != 0) {
+					if(++digits > 15) {
+						fast = false;
+					}
+					mantissa = mantissa * 10 + digit;
+				}
+				exponent--;
+			}
+		}
+		if(anyDigits && p < end && (buffer.get(p) == 'e' || buffer.get(p) == 'E')) {
+			p++;
+			boolean negativeExponent = false;
+			if(p < end && (buffer.get(p) == '-' || buffer.get(p) == '+')) {
+				negativeExponent = buffer.get(p++) == '-';
+			}
+			int written = 0;
+			boolean expDigits = false;
+			for(; p < end; p++) {
+				int digit = buffer.get(p) - '0';
+				if(digit < 0 || digit > 9) {
+					break;
+				}
+				expDigits = true;
+				written = Math.min(written * 10 + digit, 100000);
+			}
+			fast &= expDigits;
+			exponent += negativeExponent ? -written : written;
+		}
+		fast &= anyDigits && p == end;
+		buffer.position(end);
+		if(fast && exponent >= -22 && exponent <= 22) {
+			double value = mantissa;
+			value = exponent < 0 ? value / POWERS_OF_TEN[-exponent] : value * POWERS_OF_TEN[exponent];
+			return negative ? -value : value;
+		}
+		if(fast && mantissa == 0) {
+			return negative ? -0.0 : 0.0;
+		}
+		String token = text(start, end);
+		try {
+			return Double.parseDouble(token);
+		} catch(NumberFormatException e) {
+			throw error("Bad number '" + token + "'");
+		}
+	}
+
+	/**
+	 * Read the picture column, reusing the path and name from an earlier line with the same bytes
+	 */
+	private String parsePicture() throws IOException {
+		skipSpaces();
+		int start = buffer.position();
+		int end = tokenEnd();
+		if(start == end) {
+			throw error("Missing picture");
+		}
+		buffer.position(end);
+		int hash = 0;
+		for(int p = start; p < end; p++) {
+			hash = 31 * hash + (buffer.get(p) & 0xff);
+		}
+		int mask = pictureTable.length - 1;
+		int slot = hash & mask;
+		for(; pictureTable[slot] != null; slot = (slot + 1) & mask) {
+			if(pictureHashes[slot] == hash && sameBytes(pictureTable[slot], start, end)) {
+				lastPicture = slot;
+				return pictureTable[slot];
+			}
+		}
+		String picture = text(start, end);
+		int dot = picture.indexOf('.');
+		String name = dot < 0 ? picture : picture.substring(0, dot);
+		if(++pictureCount * 2 > pictureTable.length) {
+			String[] oldPictures = pictureTable;
+			int[] oldHashes = pictureHashes;
+			String[] oldNames = nameTable;
+			pictureTable = new String[oldPictures.length * 2];
+			pictureHashes = new int[oldPictures.length * 2];
+			nameTable = new String[oldPictures.length * 2];
+			for(int k = 0; k < oldPictures.length; k++) {
+				if(oldPictures[k] != null) {
+					insertPicture(oldHashes[k], oldPictures[k], oldNames[k]);
+				}
+			}
+		}
+		lastPicture = insertPicture(hash, Body.PICTURE_DIRECTORY + picture, name);
+		return pictureTable[lastPicture];
+	}
+
+	private int insertPicture(int hash, String picture, String name) {
+		int mask = pictureTable.length - 1;
+		int slot = hash & mask;
+		while(pictureTable[slot] != null) {
+			slot = (slot + 1) & mask;
+		}
+		pictureTable[slot] = picture;
+		pictureHashes[slot] = hash;
+		nameTable[slot] = name;
+		return slot;
+	}
+
+	/**
+	 * @return whether a stored picture path is the directory followed by the bytes from start to end
+	 */
+	private boolean sameBytes(String path, int start, int end) {
+		int offset = Body.PICTURE_DIRECTORY.length();
+		if(path.length() - offset != end - start) {
+			return false;
+		}
+		for(int k = 0; k < end - start; k++) {
+			if(path.charAt(offset + k) != (buffer.get(start + k) & 0xff)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String text(int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for(int k = 0; k < bytes.length; k++) {
+			bytes[k] = buffer.get(start + k);
+		}
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+	private IOException error(String message) {
+		return new IOException(filePath + ":" + lineNumber + ": " + message);
+	}
+}
@@ -0,0 +1,63 @@
+package nBodySim;
+
+/**
+ * Measures the fast multipole solver's error against the direct sum, and how long each takes,
+ * for every expansion order up to a maximum, on a random universe with no display. Barnes-Hut
+ * at its default opening angle is timed alongside for comparison. Usage:
+ * MultipoleBenchmark [bodies] [max order] [repeats]
+ * @author andre
+ *
+ */
+public class MultipoleBenchmark {
+
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int maxOrder = args.length > 1 ? Integer.parseInt(args[1]) : 12;
+		int repeats = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+		Universe universe = ScalingBenchmark.randomUniverse(n, 42);
+		BodyStore bodies = universe.getBodyStore();
+		double gravitationalConstant = universe.getGravitationalConstant();
+		BodyStore exact = bodies.copy();
+		DirectSumSolver direct = new DirectSumSolver();
+		double directMs = time(direct, exact, gravitationalConstant, repeats);
+
+		System.out.println("solver\tms/step\tspeedup\trelative RMS error\tmax relative error");
+		System.out.printf("%s\t%.2f\t%.2f\t%.3e\t%.3e%n", direct.getName(), directMs, 1.0, 0.0, 0.0);
+		report(new BarnesHutSolver(), bodies, exact, gravitationalConstant, repeats, directMs);
+		for(int order = 0; order <= maxOrder; order++) {
+			report(new FastMultipoleSolver(order), bodies, exact, gravitationalConstant, repeats, directMs);
+		}
+	}
+
+	/**
+	 * Time a solver on a copy of some bodies and print its error against the exact accelerations
+	 */
+	private static void report(ForceSolver solver, BodyStore bodies, BodyStore exact, double gravitationalConstant, int repeats, double directMs) {
+		BodyStore trial = bodies.copy();
+		double ms = time(solver, trial, gravitationalConstant, repeats);
+		double worst = 0;
+		for(int i = 0; i < exact.size(); i++) {
+			double norm = Math.hypot(exact.getAccelerationX(i), exact.getAccelerationY(i));
+			double error = Math.hypot(trial.getAccelerationX(i) - exact.getAccelerationX(i), trial.getAccelerationY(i) - exact.getAccelerationY(i));
+			if(norm != 0) {
+				worst = Math.max(worst, error / norm);
+			}
+		}
+		System.out.printf("%s\t%.2f\t%.2f\t%.3e\t%.3e%n", solver.getName(), ms, directMs / ms,
+				ForceSolvers.relativeError(exact, trial), worst);
+	}
+
+	/**
+	 * @return the fastest of a few timed calls after one to warm up, in milliseconds
+	 */
+	private static double time(ForceSolver solver, BodyStore bodies, double gravitationalConstant, int repeats) {
+		solver.computeAccelerations(bodies, gravitationalConstant);
+		long best = Long.MAX_VALUE;
+		for(int r = 0; r < repeats; r++) {
+			solver.computeAccelerations(bodies, gravitationalConstant);
+			best = Math.min(best, solver.getLastNanos());
+		}
+		return best / 1e6;
+	}
+}
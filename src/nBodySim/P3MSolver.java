@@ -0,0 +1,236 @@
+package nBodySim;
+
+import java.util.Arrays;
+
+/**
+ * Particle-particle particle-mesh gravity. The 1/r potential is split with a Gaussian into a
+ * smooth long range part, erf(r / 2r_s) / r, which the mesh handles, and a short range part,
+ * erfc(r / 2r_s) / r, which is summed exactly over the pairs of bodies closer than a cutoff,
+ * found with a cell list. Close encounters get nearly the direct sum's forces, which is what
+ * collision merging depends on, while far away mass costs no more than the mesh. The cutoff is
+ * a few mesh cells, so a clustered universe wants a finer grid to keep the pair count down
+ * @author andre
+ *
+ */
+public class P3MSolver extends ParticleMeshSolver {
+	/**
+	 * The split scale r_s, in mesh cells
+	 */
+	public static final double SPLIT_CELLS = 1.25;
+	/**
+	 * Pairs further apart than this, in mesh cells, are left to the mesh alone. At 4.5 r_s the
+	 * short range part has fallen to under 2% of the full force
+	 */
+	public static final double CUTOFF_CELLS = 4.5 * SPLIT_CELLS;
+	/**
+	 * Entries in the short range force table, which runs from 0 to the cutoff
+	 */
+	private static final int TABLE_SIZE = 4096;
+
+	/**
+	 * The fraction of the full pair force that is short range, against distance in cells
+	 */
+	private final double[] shortRange = new double[TABLE_SIZE + 2];
+	/*
+	 * The cell list, the bodies sorted by cell with where each cell starts
+	 */
+	private int[] cellStart = new int[0];
+	private int[] order = new int[0];
+	private int[] bodyCell = new int[0];
+	private double[] sortedX = new double[0];
+	private double[] sortedY = new double[0];
+	private double[] sortedMass = new double[0];
+	private double[] sortedAx = new double[0];
+	private double[] sortedAy = new double[0];
+
+	/**
+	 * Create a solver with the default grid size
+	 */
+	public P3MSolver() {
+		this(DEFAULT_GRID_SIZE);
+	}
+
+	/**
+	 * Create a solver with a given grid size
+	 * @param gridSize the cells along each side, a power of two of at least 8
+	 */
+	public P3MSolver(int gridSize) {
+		super(gridSize);
+		for(int k = 0; k < shortRange.length; k++) {
+			double x = k * CUTOFF_CELLS / TABLE_SIZE / (2 * SPLIT_CELLS);
+			shortRange[k] = erfc(x) + 2 * x / Math.sqrt(Math.PI) * Math.exp(-x * x);
+		}
+	}
+
+	@Override
+	protected long solve(BodyStore bodies, double gravitationalConstant) {
+		long interactions = super.solve(bodies, gravitationalConstant);
+		if(bodies.size > 1) {
+			buildCellList(bodies);
+			interactions += addShortRange(bodies, gravitationalConstant);
+		}
+		return interactions;
+	}
+
+	@Override
+	protected double kernel(double distance) {
+		if(distance == 0) {
+			return 1 / (SPLIT_CELLS * Math.sqrt(Math.PI));
+		}
+		return (1 - erfc(distance / (2 * SPLIT_CELLS))) / distance;
+	}
+
+	/**
+	 * Sort the bodies into square cells at least as wide as the cutoff, so every pair within the
+	 * cutoff is in the same or neighbouring cells
+	 * @param bodies
+	 */
+	private void buildCellList(BodyStore bodies) {
+		int n = bodies.size;
+		int side = getCellListSide();
+		double inverseWidth = side / (gridSize * cellSize);
+		int cells = side * side;
+		if(cellStart.length < cells + 1) {
+			cellStart = new int[cells + 1];
+		}
+		if(order.length < n) {
+			int capacity = Math.max(n, order.length * 2);
+			order = new int[capacity];
+			bodyCell = new int[capacity];
+			sortedX = new double[capacity];
+			sortedY = new double[capacity];
+			sortedMass = new double[capacity];
+			sortedAx = new double[capacity];
+			sortedAy = new double[capacity];
+		}
+		Arrays.fill(cellStart, 0, cells + 1, 0);
+		for(int i = 0; i < n; i++) {
+			int column = Math.min((int) ((bodies.x[i] - originX) * inverseWidth), side - 1);
+			int row = Math.min((int) ((bodies.y[i] - originY) * inverseWidth), side - 1);
+			bodyCell[i] = row * side + column;
+			cellStart[bodyCell[i] + 1]++;
+		}
+		for(int c = 0; c < cells; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+		for(int i = 0; i < n; i++) {
+			int k = cellStart[bodyCell[i]]++;
+			order[k] = i;
+			sortedX[k] = bodies.x[i];
+			sortedY[k] = bodies.y[i];
+			sortedMass[k] = bodies.mass[i];
+			sortedAx[k] = 0;
+			sortedAy[k] = 0;
+		}
+		//Filling moved each start to the next cell's, shift them back
+		for(int c = cells; c > 0; c--) {
+			cellStart[c] = cellStart[c - 1];
+		}
+		cellStart[0] = 0;
+	}
+
+	/**
+	 * Add the short range force of every pair within the cutoff, visiting each pair once by
+	 * pairing each cell with itself and the four neighbours ahead of it
+	 * @param bodies
+	 * @param gravitationalConstant
+	 * @return the number of pairs within the cutoff
+	 */
+	private long addShortRange(BodyStore bodies, double gravitationalConstant) {
+		int side = getCellListSide();
+		long pairs = 0;
+		for(int row = 0; row < side; row++) {
+			for(int column = 0; column < side; column++) {
+				int cell = row * side + column;
+				pairs += addPairs(cell, cell, gravitationalConstant);
+				if(column + 1 < side) {
+					pairs += addPairs(cell, cell + 1, gravitationalConstant);
+				}
+				if(row + 1 < side) {
+					pairs += addPairs(cell, cell + side, gravitationalConstant);
+					if(column > 0) {
+						pairs += addPairs(cell, cell + side - 1, gravitationalConstant);
+					}
+					if(column + 1 < side) {
+						pairs += addPairs(cell, cell + side + 1, gravitationalConstant);
+					}
+				}
+			}
+		}
+		for(int k = 0; k < bodies.size; k++) {
+			bodies.ax[order[k]] += sortedAx[k];
+			bodies.ay[order[k]] += sortedAy[k];
+		}
+		return pairs;
+	}
+
+	/**
+	 * Add the short range force between the bodies of two cells, or within one cell
+	 * @return the number of pairs within the cutoff
+	 */
+	private long addPairs(int cellA, int cellB, double gravitationalConstant) {
+		double cutoff = CUTOFF_CELLS * cellSize;
+		double cutoff2 = cutoff * cutoff;
+		double tableScale = TABLE_SIZE / cutoff;
+		int endA = cellStart[cellA + 1];
+		int startB = cellStart[cellB];
+		int endB = cellStart[cellB + 1];
+		long pairs = 0;
+		for(int i = cellStart[cellA]; i < endA; i++) {
+			double px = sortedX[i];
+			double py = sortedY[i];
+			double gmi = gravitationalConstant * sortedMass[i];
+			double accelerationX = 0;
+			double accelerationY = 0;
+			for(int j = cellA == cellB ? i + 1 : startB; j < endB; j++) {
+				double dx = sortedX[j] - px;
+				double dy = sortedY[j] - py;
+				double r2 = dx * dx + dy * dy;
+				if(r2 >= cutoff2 || r2 == 0) {
+					continue;
+				}
+				double r = Math.sqrt(r2);
+				double t = r * tableScale;
+				int k = (int) t;
+				double fraction = shortRange[k] + (t - k) * (shortRange[k + 1] - shortRange[k]);
+				double inverseR3 = fraction / (r2 * r);
+				double gmj = gravitationalConstant * sortedMass[j] * inverseR3;
+				accelerationX += dx * gmj;
+				accelerationY += dy * gmj;
+				sortedAx[j] -= dx * gmi * inverseR3;
+				sortedAy[j] -= dy * gmi * inverseR3;
+				pairs++;
+			}
+			sortedAx[i] += accelerationX;
+			sortedAy[i] += accelerationY;
+		}
+		return pairs;
+	}
+
+	/**
+	 * @return the number of cell list cells along each side, each at least the cutoff wide
+	 */
+	private int getCellListSide() {
+		return Math.max(1, (int) (gridSize / CUTOFF_CELLS));
+	}
+
+	/**
+	 * The complementary error function, from the Chebyshev fit in Numerical Recipes, with a
+	 * fractional error under 1.2e-7 everywhere
+	 * @param x
+	 * @return erfc(x)
+	 */
+	static double erfc(double x) {
+		double z = Math.abs(x);
+		double t = 1 / (1 + 0.5 * z);
+		double value = t * Math.exp(-z * z - 1.26551223 + t * (1.00002368 + t * (0.37409196 + t * (0.09678418
+				+ t * (-0.18628806 + t * (0.27886807 + t * (-1.13520398 + t * (1.48851587
+				+ t * (-0.82215223 + t * 0.17087277)))))))));
+		return x >= 0 ? value : 2 - value;
+	}
+
+	@Override
+	public String getName() {
+		return "p3m:" + gridSize;
+	}
+}
@@ -0,0 +1,51 @@
+package nBodySim;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Exact O(n^2) gravity split over a fork/join pool. Each body sums over every other body on
+ * one thread, in the same order, so the result does not depend on the thread count
+ * @author andre
+ *
+ */
+public class ParallelDirectSolver extends AbstractForceSolver {
+	/**
+	 * Splits the bodies over the pool
+	 */
+	private final ParallelForces parallel;
+
+	/**
+	 * Create a solver on the common fork/join pool
+	 */
+	public ParallelDirectSolver() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Create a solver on a given pool
+	 * @param pool
+	 */
+	public ParallelDirectSolver(ForkJoinPool pool) {
+		parallel = new ParallelForces(pool);
+	}
+
+	@Override
+	protected long solve(BodyStore bodies, double gravitationalConstant) {
+		parallel.run(bodies.size, (from, to) -> {
+			for(int b = from; b < to; b++) {
+				DirectSumSolver.computeAcceleration(bodies, b, gravitationalConstant);
+			}
+		});
+		return (long) bodies.size * (bodies.size - 1);
+	}
+
+	@Override
+	public String getName() {
+		return "parallel";
+	}
+
+	@Override
+	public boolean isExact() {
+		return true;
+	}
+}
@@ -0,0 +1,85 @@
+package nBodySim;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a per-body computation over a fork/join pool by splitting the bodies into ranges.
+ * Every body is handled by exactly one range, so how the bodies are split never changes
+ * what is computed for them
+ * @author andre
+ *
+ */
+public class ParallelForces {
+	/**
+	 * The fewest bodies a task will split down to
+	 */
+	private static final int MIN_RANGE = 64;
+	/**
+	 * The pool that runs the tasks
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * A computation over a range of bodies, from inclusive and to exclusive
+	 */
+	public interface RangeKernel {
+		void compute(int from, int to);
+	}
+
+	/**
+	 * Create a runner over a pool
+	 * @param pool
+	 */
+	public ParallelForces(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Run a kernel over bodies 0 to n, returning once every range is done
+	 * @param n
+	 * @param kernel
+	 */
+	public void run(int n, RangeKernel kernel) {
+		if(n <= MIN_RANGE || pool.getParallelism() == 1) {
+			kernel.compute(0, n);
+			return;
+		}
+		pool.invoke(new RangeTask(kernel, 0, n, Math.max(MIN_RANGE, n / (pool.getParallelism() * 8))));
+	}
+
+	/**
+	 * @return the pool the kernels run on
+	 */
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Splits its range in half until it is small enough to compute directly
+	 */
+	private static class RangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final RangeKernel kernel;
+		private final int from;
+		private final int to;
+		private final int grain;
+
+		private RangeTask(RangeKernel kernel, int from, int to, int grain) {
+			this.kernel = kernel;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from <= grain) {
+				kernel.compute(from, to);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new RangeTask(kernel, from, middle, grain), new RangeTask(kernel, middle, to, grain));
+		}
+	}
+}
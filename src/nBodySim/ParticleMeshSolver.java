@@ -0,0 +1,278 @@
+package nBodySim;
+
+import java.util.Arrays;
+
+/**
+ * O(n + G^2 log G) gravity from a particle-mesh method. Mass is spread onto a G by G grid over the
+ * bodies' bounding box with cloud-in-cell weights, the potential is the grid convolved with 1/r,
+ * done as a product of FFTs, and each body takes the finite difference gradient of the potential
+ * back with the same weights, so it feels no force from itself and momentum is kept.
+ * <p>
+ * The grid is zero padded to 2G by 2G, so the convolution does not wrap and bodies only feel the
+ * mass that is really there, and the kernel is the same 1/r law as the direct sum rather than the
+ * log r of 2D Poisson. Forces closer than a couple of cells are smoothed out, and the cells are
+ * sized to the whole bounding box, so this suits large smooth distributions and not a few bodies
+ * with one far away
+ * @author andre
+ *
+ */
+public class ParticleMeshSolver extends AbstractForceSolver {
+	/**
+	 * The grid size used when none is given
+	 */
+	public static final int DEFAULT_GRID_SIZE = 256;
+	/**
+	 * The mean of 1/r over a square cell of side 1 around its center, used as the kernel's value at
+	 * zero distance
+	 */
+	private static final double CELL_MEAN_INVERSE_DISTANCE = 4 * Math.log(1 + Math.sqrt(2));
+
+	/**
+	 * The number of cells along each side of the mass grid
+	 */
+	protected final int gridSize;
+	/**
+	 * The side of the padded grid the convolution is done on, twice the grid size
+	 */
+	private final int paddedSize;
+	private final FastFourierTransform fft;
+	/**
+	 * The padded grid, mass going in and potential coming out
+	 */
+	private final double[] re;
+	private final double[] im;
+	/**
+	 * The transform of the kernel, which is real because the kernel is even. Null until the
+	 * first step
+	 */
+	private double[] kernel;
+	/**
+	 * One column of the padded grid, so columns are transformed in contiguous memory
+	 */
+	private final double[] columnRe;
+	private final double[] columnIm;
+	/**
+	 * The acceleration at each cell of the mass grid, per unit of G
+	 */
+	private final double[] gridAx;
+	private final double[] gridAy;
+	/**
+	 * The corner of cell (0, 0) and the side of a cell in the last step
+	 */
+	protected double originX;
+	protected double originY;
+	protected double cellSize;
+
+	/**
+	 * Create a solver with the default grid size
+	 */
+	public ParticleMeshSolver() {
+		this(DEFAULT_GRID_SIZE);
+	}
+
+	/**
+	 * Create a solver with a given grid size
+	 * @param gridSize the cells along each side, a power of two of at least 8
+	 */
+	public ParticleMeshSolver(int gridSize) {
+		if(gridSize < 8 || Integer.bitCount(gridSize) != 1) {
+			throw new IllegalArgumentException("Grid size must be a power of two of at least 8, not " + gridSize);
+		}
+		this.gridSize = gridSize;
+		paddedSize = 2 * gridSize;
+		fft = new FastFourierTransform(paddedSize);
+		re = new double[paddedSize * paddedSize];
+		im = new double[paddedSize * paddedSize];
+		columnRe = new double[paddedSize];
+		columnIm = new double[paddedSize];
+		gridAx = new double[gridSize * gridSize];
+		gridAy = new double[gridSize * gridSize];
+	}
+
+	@Override
+	protected long solve(BodyStore bodies, double gravitationalConstant) {
+		int n = bodies.size;
+		if(n == 0) {
+			return 0;
+		}
+		if(kernel == null) {
+			kernel = transformKernel();
+		}
+		fitGrid(bodies);
+		assignMass(bodies);
+		convolve();
+		differentiate(gravitationalConstant);
+		interpolate(bodies);
+		//Each body touches four cells on the way in and four on the way out
+		return 8L * n;
+	}
+
+	/**
+	 * The kernel the mass grid is convolved with, as a function of distance in cells. Subclasses
+	 * that only want part of the force from the mesh override this
+	 * @param distance the distance between two cell centers, in cells
+	 * @return the potential per unit mass and G at that distance, times the cell size
+	 */
+	protected double kernel(double distance) {
+		return distance == 0 ? CELL_MEAN_INVERSE_DISTANCE : 1 / distance;
+	}
+
+	/**
+	 * Lay the kernel out on the padded grid with negative offsets wrapped round, and transform it
+	 * @return the real part of the transform, scaled so the inverse transform comes out right
+	 */
+	private double[] transformKernel() {
+		Arrays.fill(im, 0);
+		for(int row = 0; row < paddedSize; row++) {
+			int dy = row < gridSize ? row : row - paddedSize;
+			for(int column = 0; column < paddedSize; column++) {
+				int dx = column < gridSize ? column : column - paddedSize;
+				re[row * paddedSize + column] = kernel(Math.sqrt((double) dx * dx + (double) dy * dy));
+			}
+		}
+		for(int row = 0; row < paddedSize; row++) {
+			fft.transform(re, im, row * paddedSize, false);
+		}
+		double scale = 1.0 / ((double) paddedSize * paddedSize);
+		double[] transformed = new double[paddedSize * paddedSize];
+		for(int column = 0; column < paddedSize; column++) {
+			loadColumn(column);
+			fft.transform(columnRe, columnIm, 0, false);
+			for(int row = 0; row < paddedSize; row++) {
+				transformed[row * paddedSize + column] = columnRe[row] * scale;
+			}
+		}
+		return transformed;
+	}
+
+	/**
+	 * Size the cells so the bounding box of the bodies fits with a cell to spare on every side,
+	 * which keeps every cloud and every finite difference inside the grid
+	 * @param bodies
+	 */
+	private void fitGrid(BodyStore bodies) {
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for(int i = 0; i < bodies.size; i++) {
+			minX = Math.min(minX, bodies.x[i]);
+			maxX = Math.max(maxX, bodies.x[i]);
+			minY = Math.min(minY, bodies.y[i]);
+			maxY = Math.max(maxY, bodies.y[i]);
+		}
+		double extent = Math.max(maxX - minX, maxY - minY);
+		cellSize = extent > 0 ? extent / (gridSize - 2) : 1;
+		originX = minX - cellSize;
+		originY = minY - cellSize;
+	}
+
+	/**
+	 * Spread each body's mass over the four cells nearest to it
+	 * @param bodies
+	 */
+	private void assignMass(BodyStore bodies) {
+		Arrays.fill(re, 0);
+		Arrays.fill(im, 0);
+		for(int i = 0; i < bodies.size; i++) {
+			double u = (bodies.x[i] - originX) / cellSize - 0.5;
+			double v = (bodies.y[i] - originY) / cellSize - 0.5;
+			int column = (int) u;
+			int row = (int) v;
+			double fx = u - column;
+			double fy = v - row;
+			double m = bodies.mass[i];
+			int cell = row * paddedSize + column;
+			re[cell] += m * (1 - fx) * (1 - fy);
+			re[cell + 1] += m * fx * (1 - fy);
+			re[cell + paddedSize] += m * (1 - fx) * fy;
+			re[cell + paddedSize + 1] += m * fx * fy;
+		}
+	}
+
+	/**
+	 * Convolve the mass with the kernel, leaving the potential in the real part of the padded
+	 * grid. Only the rows that hold mass are transformed forward, and only the rows the finite
+	 * differences read are transformed back
+	 */
+	private void convolve() {
+		for(int row = 0; row < gridSize; row++) {
+			fft.transform(re, im, row * paddedSize, false);
+		}
+		for(int column = 0; column < paddedSize; column++) {
+			loadColumn(column);
+			fft.transform(columnRe, columnIm, 0, false);
+			for(int row = 0; row < paddedSize; row++) {
+				double k = kernel[row * paddedSize + column];
+				columnRe[row] *= k;
+				columnIm[row] *= k;
+			}
+			fft.transform(columnRe, columnIm, 0, true);
+			for(int row = 0; row < paddedSize; row++) {
+				re[row * paddedSize + column] = columnRe[row];
+				im[row * paddedSize + column] = columnIm[row];
+			}
+		}
+		for(int row = 0; row <= gridSize; row++) {
+			fft.transform(re, im, row * paddedSize, true);
+		}
+		fft.transform(re, im, (paddedSize - 1) * paddedSize, true);
+	}
+
+	/**
+	 * Work out the acceleration at each cell of the mass grid from central differences of the
+	 * potential. Row and column -1 are the last of the padded grid
+	 * @param gravitationalConstant
+	 */
+	private void differentiate(double gravitationalConstant) {
+		//The potential is -G times the convolution, over the cell size, so the acceleration is its gradient over 2h
+		double scale = gravitationalConstant / (2 * cellSize * cellSize);
+		for(int row = 0; row < gridSize; row++) {
+			int above = (row + 1) * paddedSize;
+			int below = (row == 0 ? paddedSize - 1 : row - 1) * paddedSize;
+			int here = row * paddedSize;
+			for(int column = 0; column < gridSize; column++) {
+				int left = column == 0 ? paddedSize - 1 : column - 1;
+				gridAx[row * gridSize + column] = (re[here + column + 1] - re[here + left]) * scale;
+				gridAy[row * gridSize + column] = (re[above + column] - re[below + column]) * scale;
+			}
+		}
+	}
+
+	/**
+	 * Give each body the acceleration of the four cells nearest to it, with the weights its mass
+	 * was spread with
+	 * @param bodies
+	 */
+	private void interpolate(BodyStore bodies) {
+		for(int i = 0; i < bodies.size; i++) {
+			double u = (bodies.x[i] - originX) / cellSize - 0.5;
+			double v = (bodies.y[i] - originY) / cellSize - 0.5;
+			int column = (int) u;
+			int row = (int) v;
+			double fx = u - column;
+			double fy = v - row;
+			int cell = row * gridSize + column;
+			double w00 = (1 - fx) * (1 - fy), w10 = fx * (1 - fy), w01 = (1 - fx) * fy, w11 = fx * fy;
+			bodies.ax[i] = w00 * gridAx[cell] + w10 * gridAx[cell + 1] + w01 * gridAx[cell + gridSize] + w11 * gridAx[cell + gridSize + 1];
+			bodies.ay[i] = w00 * gridAy[cell] + w10 * gridAy[cell + 1] + w01 * gridAy[cell + gridSize] + w11 * gridAy[cell + gridSize + 1];
+		}
+	}
+
+	private void loadColumn(int column) {
+		for(int row = 0; row < paddedSize; row++) {
+			columnRe[row] = re[row * paddedSize + column];
+			columnIm[row] = im[row * paddedSize + column];
+		}
+	}
+
+	/**
+	 * @return the number of cells along each side of the grid
+	 */
+	public int getGridSize() {
+		return gridSize;
+	}
+
+	@Override
+	public String getName() {
+		return "particle-mesh:" + gridSize;
+	}
+}
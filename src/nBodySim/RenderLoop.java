@@ -0,0 +1,154 @@
+package nBodySim;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import lib.StdDraw;
+
+/**
+ * Draws the latest published snapshot of a universe on its own thread at a fixed frame rate, so
+ * the simulation never waits on StdDraw and can take any number of steps between frames
+ * @author andre
+ *
+ */
+public class RenderLoop {
+	/**
+	 * The frame rate used when none is given
+	 */
+	public static final int DEFAULT_FRAMES_PER_SECOND = 30;
+	/**
+	 * The given star background for the window
+	 */
+	private final static String starBackground = "src\\data\\starfield.jpg";
+	/**
+	 * The newest snapshot, replaced by the simulation and read by the render thread
+	 */
+	private final AtomicReference<UniverseSnapshot> latest = new AtomicReference<UniverseSnapshot>();
+	/**
+	 * The snapshot drawn last, so a frame is skipped when nothing new was published. Written by
+	 * the render thread and by stop once it has ended
+	 */
+	private volatile UniverseSnapshot drawn;
+	/**
+	 * Time between frames, in nanoseconds
+	 */
+	private final long frameNanos;
+	/**
+	 * Runs the frames, null until started
+	 */
+	private ScheduledExecutorService executor;
+	/**
+	 * Where frame times are recorded, null to not time them
+	 */
+	private volatile StepMetrics metrics;
+
+	/**
+	 * Create a loop at the default frame rate
+	 */
+	public RenderLoop() {
+		this(DEFAULT_FRAMES_PER_SECOND);
+	}
+
+	/**
+	 * Create a loop at a given frame rate
+	 * @param framesPerSecond
+	 */
+	public RenderLoop(int framesPerSecond) {
+		if(framesPerSecond <= 0) {
+			throw new IllegalArgumentException("Frame rate must be positive");
+		}
+		frameNanos = 1000000000L / framesPerSecond;
+	}
+
+	/**
+	 * Start drawing frames on the render thread
+	 */
+	public synchronized void start() {
+		if(executor != null) {
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "nbody-render");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.execute(StdDraw::enableDoubleBuffering);
+		executor.scheduleAtFixedRate(this::drawLatest, 0, frameNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Stop drawing, after drawing the last published snapshot. If the render thread is still in
+	 * a frame after a second the last snapshot is not drawn, so two threads never draw at once
+	 */
+	public synchronized void stop() {
+		if(executor == null) {
+			return;
+		}
+		executor.shutdown();
+		boolean terminated = false;
+		try {
+			terminated = executor.awaitTermination(1, TimeUnit.SECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		executor = null;
+		if(terminated) {
+			drawLatest();
+		}
+	}
+
+	/**
+	 * Hand a new snapshot to the render thread, replacing any that has not been drawn yet
+	 * @param snapshot
+	 */
+	public void publish(UniverseSnapshot snapshot) {
+		latest.set(snapshot);
+	}
+
+	/**
+	 * Record how long each frame takes to draw
+	 * @param metrics the metrics to record REDRAW times in, or null to stop
+	 */
+	public void setMetrics(StepMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return the time between frames, in nanoseconds
+	 */
+	public long getFrameNanos() {
+		return frameNanos;
+	}
+
+	/**
+	 * Draw the newest snapshot if it has not been drawn already
+	 */
+	private void drawLatest() {
+		UniverseSnapshot snapshot = latest.get();
+		if(snapshot != null && snapshot != drawn) {
+			StepMetrics frameMetrics = metrics;
+			long start = frameMetrics == null ? 0 : frameMetrics.start();
+			draw(snapshot);
+			if(frameMetrics != null) {
+				frameMetrics.stop(StepMetrics.Phase.REDRAW, start);
+			}
+			drawn = snapshot;
+		}
+	}
+
+	/**
+	 * Draw a snapshot in the StdDraw window, over the star background
+	 * @param snapshot
+	 */
+	public static void draw(UniverseSnapshot snapshot) {
+		double radius = snapshot.getRadius();
+		StdDraw.clear();
+		StdDraw.picture(0.5, 0.5, starBackground);
+		for(int i = 0; i < snapshot.size(); i++) {
+			StdDraw.picture((snapshot.getX(i) + radius) / (2 * radius), (snapshot.getY(i) + radius) / (2 * radius), snapshot.getPicturePath(i));
+		}
+		StdDraw.show();
+	}
+}
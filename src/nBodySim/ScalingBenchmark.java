@@ -0,0 +1,74 @@
+package nBodySim;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import lib.Vector2D;
+
+/**
+ * Measures how the parallel force computation scales with the number of threads, on a random
+ * universe with no display. Usage: ScalingBenchmark [bodies] [steps] [max threads]
+ * @author andre
+ *
+ */
+public class ScalingBenchmark {
+
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+		int steps = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+		double[] reference = null;
+		double baseTime = 0;
+		System.out.println("threads\tms/step\tspeedup\tsame result");
+		for(int threads = 1; threads <= maxThreads; threads *= 2) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			Universe universe = randomUniverse(n, 42);
+			universe.setForceSolver(new ParallelDirectSolver(pool));
+			//Warm up, then time
+			universe.step(1);
+			long start = System.nanoTime();
+			for(int i = 0; i < steps; i++) {
+				universe.step(1);
+			}
+			double msPerStep = (System.nanoTime() - start) / 1e6 / steps;
+			pool.shutdown();
+
+			BodyStore store = universe.getBodyStore();
+			double[] positions = new double[store.size() * 2];
+			for(int i = 0; i < store.size(); i++) {
+				positions[2 * i] = store.getX(i);
+				positions[2 * i + 1] = store.getY(i);
+			}
+			if(reference == null) {
+				reference = positions;
+				baseTime = msPerStep;
+			}
+			System.out.printf("%d\t%.2f\t%.2f\t%b%n", threads, msPerStep, baseTime / msPerStep,
+					Arrays.equals(reference, positions));
+			if(threads < maxThreads && threads * 2 > maxThreads) {
+				threads = maxThreads / 2;
+			}
+		}
+	}
+
+	/**
+	 * Build a universe of bodies scattered around the origin, with masses and spacing like the
+	 * bundled scenarios
+	 * @param n the number of bodies
+	 * @param seed
+	 * @return the universe
+	 */
+	public static Universe randomUniverse(int n, long seed) {
+		Random random = new Random(seed);
+		double radius = 1e12;
+		Universe universe = new Universe(radius);
+		for(int i = 0; i < n; i++) {
+			Vector2D position = new Vector2D(random.nextGaussian() * radius / 4, random.nextGaussian() * radius / 4);
+			Vector2D velocity = new Vector2D(random.nextGaussian() * 1e3, random.nextGaussian() * 1e3);
+			universe.addBody(new Body("body" + i, position, velocity, new Vector2D(), 1e24 * (1 + random.nextDouble()), 1, "earth.gif"));
+		}
+		return universe;
+	}
+}
@@ -0,0 +1,180 @@
+package nBodySim;
+
+import java.util.concurrent.ForkJoinPool;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Exact O(n^2) gravity with the inner loop written on the incubating Vector API, so each
+ * instruction works on as many source bodies as the CPU's widest double vector holds, four with
+ * AVX2 and eight with AVX-512. On one thread each pair is visited once, like the direct sum,
+ * with the equal and opposite forces on a run of bodies added back with one vector store. Split
+ * over a pool each body sums over every other body instead, so no two threads write the same slot.
+ * <p>
+ * This class needs the jdk.incubator.vector module, so it has to be compiled and run with
+ * --add-modules jdk.incubator.vector. ForceSolvers only loads it by reflection, and falls back to
+ * the scalar direct sum when the module is missing or this turns out slower
+ * @author andre
+ *
+ */
+public class SimdDirectSolver extends AbstractForceSolver {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	/**
+	 * Splits the bodies over a pool, null to work on the calling thread
+	 */
+	private final ParallelForces parallel;
+
+	/**
+	 * Create a solver that works on the calling thread
+	 */
+	public SimdDirectSolver() {
+		this(null);
+	}
+
+	/**
+	 * Create a solver that splits the bodies over a pool
+	 * @param pool the pool, or null to work on the calling thread
+	 */
+	public SimdDirectSolver(ForkJoinPool pool) {
+		parallel = pool == null ? null : new ParallelForces(pool);
+	}
+
+	@Override
+	protected long solve(BodyStore bodies, double gravitationalConstant) {
+		if(parallel == null) {
+			computePairs(bodies, gravitationalConstant);
+			return (long) bodies.size * (bodies.size - 1) / 2;
+		}
+		parallel.run(bodies.size, (from, to) -> computeRange(bodies, from, to, gravitationalConstant));
+		return (long) bodies.size * (bodies.size - 1);
+	}
+
+	/**
+	 * Work out the acceleration of every body, visiting each pair once
+	 */
+	private static void computePairs(BodyStore bodies, double gravitationalConstant) {
+		int n = bodies.size;
+		double[] x = bodies.x, y = bodies.y, mass = bodies.mass, ax = bodies.ax, ay = bodies.ay;
+		for(int i = 0; i < n; i++) {
+			ax[i] = 0;
+			ay[i] = 0;
+		}
+		int lanes = SPECIES.length();
+		for(int i = 0; i < n; i++) {
+			double px = x[i];
+			double py = y[i];
+			double mi = mass[i];
+			double accelerationX = 0;
+			double accelerationY = 0;
+			int j = i + 1;
+			//The last few rows have less than a vector of bodies left, they are done without vectors
+			if(j + lanes <= n) {
+				DoubleVector zero = DoubleVector.zero(SPECIES);
+				DoubleVector one = DoubleVector.broadcast(SPECIES, 1);
+				DoubleVector targetX = DoubleVector.broadcast(SPECIES, px);
+				DoubleVector targetY = DoubleVector.broadcast(SPECIES, py);
+				DoubleVector targetMass = DoubleVector.broadcast(SPECIES, -mi);
+				DoubleVector sumX = DoubleVector.zero(SPECIES);
+				DoubleVector sumY = DoubleVector.zero(SPECIES);
+				for(; j + lanes <= n; j += lanes) {
+					DoubleVector dx = DoubleVector.fromArray(SPECIES, x, j).sub(targetX);
+					DoubleVector dy = DoubleVector.fromArray(SPECIES, y, j).sub(targetY);
+					DoubleVector r2 = dx.fma(dx, dy.mul(dy));
+					VectorMask<Double> apart = r2.compare(VectorOperators.NE, 0);
+					DoubleVector inverseR3 = zero.blend(one.div(r2.mul(r2.lanewise(VectorOperators.SQRT))), apart);
+					DoubleVector scale = DoubleVector.fromArray(SPECIES, mass, j).mul(inverseR3);
+					sumX = dx.fma(scale, sumX);
+					sumY = dy.fma(scale, sumY);
+					//The pull of i on each of the run, opposite in direction
+					DoubleVector pull = targetMass.mul(inverseR3);
+					dx.fma(pull, DoubleVector.fromArray(SPECIES, ax, j)).intoArray(ax, j);
+					dy.fma(pull, DoubleVector.fromArray(SPECIES, ay, j)).intoArray(ay, j);
+				}
+				accelerationX = sumX.reduceLanes(VectorOperators.ADD);
+				accelerationY = sumY.reduceLanes(VectorOperators.ADD);
+			}
+			for(; j < n; j++) {
+				double dx = x[j] - px;
+				double dy = y[j] - py;
+				double r2 = dx * dx + dy * dy;
+				if(r2 != 0) {
+					double inverseR3 = 1 / (r2 * Math.sqrt(r2));
+					accelerationX += dx * mass[j] * inverseR3;
+					accelerationY += dy * mass[j] * inverseR3;
+					ax[j] -= dx * mi * inverseR3;
+					ay[j] -= dy * mi * inverseR3;
+				}
+			}
+			ax[i] += accelerationX;
+			ay[i] += accelerationY;
+		}
+		for(int i = 0; i < n; i++) {
+			ax[i] *= gravitationalConstant;
+			ay[i] *= gravitationalConstant;
+		}
+	}
+
+	/**
+	 * Work out the acceleration of bodies from to to, summing over every body
+	 */
+	private static void computeRange(BodyStore bodies, int from, int to, double gravitationalConstant) {
+		int n = bodies.size;
+		double[] x = bodies.x, y = bodies.y, mass = bodies.mass;
+		int vectorEnd = SPECIES.loopBound(n);
+		DoubleVector zero = DoubleVector.zero(SPECIES);
+		for(int b = from; b < to; b++) {
+			double px = x[b];
+			double py = y[b];
+			DoubleVector targetX = DoubleVector.broadcast(SPECIES, px);
+			DoubleVector targetY = DoubleVector.broadcast(SPECIES, py);
+			DoubleVector sumX = zero;
+			DoubleVector sumY = zero;
+			for(int j = 0; j < vectorEnd; j += SPECIES.length()) {
+				DoubleVector dx = DoubleVector.fromArray(SPECIES, x, j).sub(targetX);
+				DoubleVector dy = DoubleVector.fromArray(SPECIES, y, j).sub(targetY);
+				DoubleVector r2 = dx.fma(dx, dy.mul(dy));
+				//The body itself, and any on top of it, are at distance 0 and pull with no force
+				VectorMask<Double> apart = r2.compare(VectorOperators.NE, 0);
+				DoubleVector r3 = r2.mul(r2.lanewise(VectorOperators.SQRT));
+				DoubleVector scale = zero.blend(DoubleVector.fromArray(SPECIES, mass, j).div(r3), apart);
+				sumX = dx.fma(scale, sumX);
+				sumY = dy.fma(scale, sumY);
+			}
+			double accelerationX = sumX.reduceLanes(VectorOperators.ADD);
+			double accelerationY = sumY.reduceLanes(VectorOperators.ADD);
+			for(int j = vectorEnd; j < n; j++) {
+				double dx = x[j] - px;
+				double dy = y[j] - py;
+				double r2 = dx * dx + dy * dy;
+				if(r2 != 0) {
+					double scale = mass[j] / (r2 * Math.sqrt(r2));
+					accelerationX += dx * scale;
+					accelerationY += dy * scale;
+				}
+			}
+			bodies.ax[b] = accelerationX * gravitationalConstant;
+			bodies.ay[b] = accelerationY * gravitationalConstant;
+		}
+	}
+
+	/**
+	 * @return the number of doubles each vector instruction works on
+	 */
+	public static int getLanes() {
+		return SPECIES.length();
+	}
+
+	@Override
+	public String getName() {
+		return parallel == null ? "simd" : "parallel-simd";
+	}
+
+	@Override
+	public boolean isExact() {
+		return true;
+	}
+}
@@ -0,0 +1,76 @@
+package nBodySim;
+
+/**
+ * Steps a universe to its max time on whatever thread runs it, publishing a snapshot to a
+ * render loop at most once per frame. The universe's step metrics are registered over JMX,
+ * under the runner's name, while it runs
+ * @author andre
+ *
+ */
+public class SimulationRunner implements Runnable {
+	private final Universe universe;
+	private final double deltaTime;
+	private final RenderLoop renderLoop;
+	private final String name;
+	/**
+	 * Set to stop the run early
+	 */
+	private volatile boolean cancelled;
+
+	/**
+	 * Create a runner
+	 * @param universe the universe to step
+	 * @param deltaTime the time step
+	 * @param renderLoop where to publish snapshots, or null to run without drawing
+	 */
+	public SimulationRunner(Universe universe, double deltaTime, RenderLoop renderLoop) {
+		this(universe, deltaTime, renderLoop, "simulation");
+	}
+
+	/**
+	 * Create a runner with a name for its metrics
+	 * @param universe the universe to step
+	 * @param deltaTime the time step
+	 * @param renderLoop where to publish snapshots, or null to run without drawing
+	 * @param name what the metrics are registered as
+	 */
+	public SimulationRunner(Universe universe, double deltaTime, RenderLoop renderLoop, String name) {
+		this.universe = universe;
+		this.deltaTime = deltaTime;
+		this.renderLoop = renderLoop;
+		this.name = name;
+	}
+
+	@Override
+	public void run() {
+		StepMetrics metrics = universe.getMetrics();
+		metrics.register(name);
+		if(renderLoop != null) {
+			renderLoop.setMetrics(metrics);
+		}
+		long frameNanos = renderLoop == null ? Long.MAX_VALUE : renderLoop.getFrameNanos();
+		long lastPublish = System.nanoTime() - frameNanos;
+		try {
+			while(universe.continueSimulation() && !cancelled) {
+				universe.step(deltaTime);
+				long now = System.nanoTime();
+				if(renderLoop != null && now - lastPublish >= frameNanos) {
+					renderLoop.publish(universe.snapshot());
+					lastPublish = now;
+				}
+			}
+			if(renderLoop != null) {
+				renderLoop.publish(universe.snapshot());
+			}
+		} finally {
+			metrics.unregister();
+		}
+	}
+
+	/**
+	 * Ask the run to stop after the current step
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+}
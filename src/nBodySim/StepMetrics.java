@@ -0,0 +1,261 @@
+package nBodySim;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and timers for the phases of a universe's steps. Each phase keeps a LatencyHistogram,
+ * so the median and 99th percentile are there alongside the mean. Timing costs two
+ * System.nanoTime calls per phase per step and can be turned off, in which case start returns
+ * 0 and stop does nothing. The metrics can be registered as an MXBean to be watched over JMX
+ * @author andre
+ *
+ */
+public class StepMetrics implements StepMetricsMXBean {
+	/**
+	 * The parts of a step that are timed
+	 */
+	public enum Phase {
+		/**
+		 * Working out accelerations, every evaluation in a step together
+		 */
+		FORCES,
+		/**
+		 * Building the collision grid and finding touching pairs
+		 */
+		COLLISIONS,
+		/**
+		 * Moving the bodies, apart from the force evaluations
+		 */
+		INTEGRATION,
+		/**
+		 * Merging touching bodies, only timed on steps that have any
+		 */
+		MERGES,
+		/**
+		 * Drawing a frame
+		 */
+		REDRAW,
+		/**
+		 * Recording trajectories and saving checkpoints
+		 */
+		IO
+	}
+
+	private final EnumMap<Phase, LatencyHistogram> histograms = new EnumMap<Phase, LatencyHistogram>(Phase.class);
+	private final AtomicLong steps = new AtomicLong();
+	private final AtomicLong collisionPairs = new AtomicLong();
+	private final AtomicLong mergedBodies = new AtomicLong();
+	private volatile boolean enabled = true;
+	/**
+	 * The name these metrics are registered under, null when they are not
+	 */
+	private ObjectName registeredName;
+
+	/**
+	 * Create metrics with every phase empty
+	 */
+	public StepMetrics() {
+		for(Phase phase : Phase.values()) {
+			histograms.put(phase, new LatencyHistogram());
+		}
+	}
+
+	/**
+	 * Start timing something
+	 * @return the time to pass to stop, 0 when timing is off
+	 */
+	public long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Stop timing a phase and record it
+	 * @param phase
+	 * @param start what start returned
+	 * @return the time taken in nanoseconds, 0 when timing is off
+	 */
+	public long stop(Phase phase, long start) {
+		if(start == 0) {
+			return 0;
+		}
+		long nanos = System.nanoTime() - start;
+		histograms.get(phase).record(nanos);
+		return nanos;
+	}
+
+	/**
+	 * Record a time for a phase that was measured elsewhere
+	 * @param phase
+	 * @param nanos
+	 */
+	public void record(Phase phase, long nanos) {
+		if(enabled) {
+			histograms.get(phase).record(nanos);
+		}
+	}
+
+	/**
+	 * Count a step
+	 * @param pairs the touching pairs found in it
+	 * @param merged the bodies merged away in it
+	 */
+	void countStep(int pairs, int merged) {
+		steps.incrementAndGet();
+		if(pairs != 0) {
+			collisionPairs.addAndGet(pairs);
+			mergedBodies.addAndGet(merged);
+		}
+	}
+
+	/**
+	 * @param phase
+	 * @return the times recorded for a phase
+	 */
+	public LatencyHistogram getHistogram(Phase phase) {
+		return histograms.get(phase);
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Override
+	public long getSteps() {
+		return steps.get();
+	}
+
+	@Override
+	public long getCollisionPairs() {
+		return collisionPairs.get();
+	}
+
+	@Override
+	public long getMergedBodies() {
+		return mergedBodies.get();
+	}
+
+	@Override
+	public Map<String, Double> getP50Micros() {
+		Map<String, Double> values = new LinkedHashMap<String, Double>();
+		for(Phase phase : Phase.values()) {
+			values.put(phase.name(), histograms.get(phase).getPercentile(0.5) / 1e3);
+		}
+		return values;
+	}
+
+	@Override
+	public Map<String, Double> getP99Micros() {
+		Map<String, Double> values = new LinkedHashMap<String, Double>();
+		for(Phase phase : Phase.values()) {
+			values.put(phase.name(), histograms.get(phase).getPercentile(0.99) / 1e3);
+		}
+		return values;
+	}
+
+	@Override
+	public Map<String, Double> getMeanMicros() {
+		Map<String, Double> values = new LinkedHashMap<String, Double>();
+		for(Phase phase : Phase.values()) {
+			values.put(phase.name(), histograms.get(phase).getMean() / 1e3);
+		}
+		return values;
+	}
+
+	@Override
+	public Map<String, Double> getMaxMicros() {
+		Map<String, Double> values = new LinkedHashMap<String, Double>();
+		for(Phase phase : Phase.values()) {
+			values.put(phase.name(), histograms.get(phase).getMax() / 1e3);
+		}
+		return values;
+	}
+
+	@Override
+	public Map<String, Double> getTotalSeconds() {
+		Map<String, Double> values = new LinkedHashMap<String, Double>();
+		for(Phase phase : Phase.values()) {
+			values.put(phase.name(), histograms.get(phase).getTotal() / 1e9);
+		}
+		return values;
+	}
+
+	@Override
+	public void reset() {
+		for(LatencyHistogram histogram : histograms.values()) {
+			histogram.reset();
+		}
+		steps.set(0);
+		collisionPairs.set(0);
+		mergedBodies.set(0);
+	}
+
+	/**
+	 * Register these metrics with the platform MBean server as nBodySim:type=StepMetrics,name=name,
+	 * replacing any already registered under that name
+	 * @param name what the run is called, such as its scenario
+	 * @throws IllegalStateException if the MBean server refuses them
+	 */
+	public synchronized void register(String name) {
+		unregister();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName objectName = new ObjectName("nBodySim:type=StepMetrics,name=" + ObjectName.quote(name));
+			if(server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(this, objectName);
+			registeredName = objectName;
+		} catch(JMException e) {
+			throw new IllegalStateException("Could not register step metrics for " + name, e);
+		}
+	}
+
+	/**
+	 * Remove these metrics from the platform MBean server, if they were registered
+	 */
+	public synchronized void unregister() {
+		if(registeredName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+		} catch(JMException e) {
+			//Already gone, nothing to do
+		}
+		registeredName = null;
+	}
+
+	/**
+	 * @return one line per phase that has been timed, with its count, median, 99th percentile,
+	 * max and total
+	 */
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		text.append(String.format("%d steps, %d touching pairs, %d bodies merged", getSteps(), getCollisionPairs(), getMergedBodies()));
+		for(Phase phase : Phase.values()) {
+			LatencyHistogram histogram = histograms.get(phase);
+			if(histogram.getCount() == 0) {
+				continue;
+			}
+			text.append(String.format("%n  %-12s %8d x  p50 %10.1f us  p99 %10.1f us  max %10.1f us  total %8.3f s",
+					phase.name().toLowerCase(), histogram.getCount(), histogram.getPercentile(0.5) / 1e3,
+					histogram.getPercentile(0.99) / 1e3, histogram.getMax() / 1e3, histogram.getTotal() / 1e9));
+		}
+		return text.toString();
+	}
+}
@@ -0,0 +1,67 @@
+package nBodySim;
+
+import java.util.Map;
+
+/**
+ * The management interface of StepMetrics, so a running sim can be watched from JConsole or
+ * VisualVM. Times are keyed by phase name, in the order the phases run
+ * @author andre
+ *
+ */
+public interface StepMetricsMXBean {
+	/**
+	 * @return whether the phases are being timed
+	 */
+	boolean isEnabled();
+
+	/**
+	 * Turn timing on or off, the counters are kept either way
+	 * @param enabled
+	 */
+	void setEnabled(boolean enabled);
+
+	/**
+	 * @return the number of steps taken since the metrics were created or reset
+	 */
+	long getSteps();
+
+	/**
+	 * @return the number of touching pairs found
+	 */
+	long getCollisionPairs();
+
+	/**
+	 * @return the number of bodies merged away
+	 */
+	long getMergedBodies();
+
+	/**
+	 * @return the median time of each phase, in microseconds
+	 */
+	Map<String, Double> getP50Micros();
+
+	/**
+	 * @return the 99th percentile time of each phase, in microseconds
+	 */
+	Map<String, Double> getP99Micros();
+
+	/**
+	 * @return the mean time of each phase, in microseconds
+	 */
+	Map<String, Double> getMeanMicros();
+
+	/**
+	 * @return the longest time of each phase, in microseconds
+	 */
+	Map<String, Double> getMaxMicros();
+
+	/**
+	 * @return the total time spent in each phase, in seconds
+	 */
+	Map<String, Double> getTotalSeconds();
+
+	/**
+	 * Clear every counter and histogram
+	 */
+	void reset();
+}
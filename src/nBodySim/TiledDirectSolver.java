@@ -0,0 +1,152 @@
+package nBodySim;
+
+/**
+ * Exact O(n^2) gravity with the pairs taken a tile at a time. The bodies are cut into blocks, and
+ * each pair of blocks is done in one go, so the positions, masses and accelerations of the source
+ * block stay in L1 while every body of the target block is summed over them. The plain direct sum
+ * streams all n bodies past each target instead, which for thousands of bodies or more no longer
+ * fits in L1 or L2.
+ * <p>
+ * The best block size depends on the machine's caches, so unless one is given it is found once,
+ * the first time a solver is created, by timing each candidate on a sample universe
+ * @author andre
+ *
+ */
+public class TiledDirectSolver extends AbstractForceSolver {
+	/**
+	 * The block sizes the autotuner tries
+	 */
+	private static final int[] CANDIDATE_TILES = {64, 128, 256, 512, 1024, 2048};
+	/**
+	 * The number of bodies the autotuner times each block size on, enough that they do not all
+	 * fit in L2 but few enough that tuning takes around a second
+	 */
+	private static final int TUNING_BODIES = 6144;
+	/**
+	 * The block size picked by the autotuner, 0 until it has run
+	 */
+	private static int tunedTileSize;
+
+	private final int tileSize;
+
+	/**
+	 * Create a solver with the autotuned block size, tuning it first if this is the first one
+	 */
+	public TiledDirectSolver() {
+		this(getTunedTileSize());
+	}
+
+	/**
+	 * Create a solver with a given block size
+	 * @param tileSize the number of bodies in a block
+	 */
+	public TiledDirectSolver(int tileSize) {
+		if(tileSize < 1) {
+			throw new IllegalArgumentException("Tile size must be positive, not " + tileSize);
+		}
+		this.tileSize = tileSize;
+	}
+
+	@Override
+	protected long solve(BodyStore bodies, double gravitationalConstant) {
+		int n = bodies.size;
+		double[] x = bodies.x, y = bodies.y, mass = bodies.mass, ax = bodies.ax, ay = bodies.ay;
+		for(int i = 0; i < n; i++) {
+			ax[i] = 0;
+			ay[i] = 0;
+		}
+		for(int targetStart = 0; targetStart < n; targetStart += tileSize) {
+			int targetEnd = Math.min(targetStart + tileSize, n);
+			for(int sourceStart = targetStart; sourceStart < n; sourceStart += tileSize) {
+				int sourceEnd = Math.min(sourceStart + tileSize, n);
+				for(int i = targetStart; i < targetEnd; i++) {
+					double px = x[i];
+					double py = y[i];
+					double mi = mass[i];
+					double accelerationX = 0;
+					double accelerationY = 0;
+					//Within the diagonal tile only the pairs ahead of i are new
+					for(int j = sourceStart == targetStart ? i + 1 : sourceStart; j < sourceEnd; j++) {
+						double dx = x[j] - px;
+						double dy = y[j] - py;
+						double r2 = dx * dx + dy * dy;
+						if(r2 != 0) {
+							double inverseR = 1 / Math.sqrt(r2);
+							double inverseR3 = inverseR * inverseR * inverseR;
+							accelerationX += dx * mass[j] * inverseR3;
+							accelerationY += dy * mass[j] * inverseR3;
+							ax[j] -= dx * mi * inverseR3;
+							ay[j] -= dy * mi * inverseR3;
+						}
+					}
+					ax[i] += accelerationX;
+					ay[i] += accelerationY;
+				}
+			}
+		}
+		for(int i = 0; i < n; i++) {
+			ax[i] *= gravitationalConstant;
+			ay[i] *= gravitationalConstant;
+		}
+		return (long) n * (n - 1) / 2;
+	}
+
+	/**
+	 * Get the block size the autotuner picks for this machine, timing every candidate on a
+	 * random universe the first time this is called
+	 * @return the fastest block size
+	 */
+	public static synchronized int getTunedTileSize() {
+		if(tunedTileSize == 0) {
+			tunedTileSize = tune(ScalingBenchmark.randomUniverse(TUNING_BODIES, 1).getBodyStore());
+		}
+		return tunedTileSize;
+	}
+
+	/**
+	 * Time each candidate block size on some bodies. Every candidate runs the same code, so one
+	 * call warms up the JIT for all of them, then each is timed twice, round robin, so a slow
+	 * moment on the machine does not count against one candidate alone
+	 * @param bodies the bodies to time on, their accelerations are overwritten
+	 * @return the block size with the fastest call
+	 */
+	static int tune(BodyStore bodies) {
+		TiledDirectSolver[] candidates = new TiledDirectSolver[CANDIDATE_TILES.length];
+		long[] fastest = new long[CANDIDATE_TILES.length];
+		for(int c = 0; c < candidates.length; c++) {
+			candidates[c] = new TiledDirectSolver(CANDIDATE_TILES[c]);
+			fastest[c] = Long.MAX_VALUE;
+		}
+		candidates[0].computeAccelerations(bodies, 1);
+		for(int round = 0; round < 2; round++) {
+			for(int c = 0; c < candidates.length; c++) {
+				candidates[c].computeAccelerations(bodies, 1);
+				fastest[c] = Math.min(fastest[c], candidates[c].getLastNanos());
+			}
+		}
+		int best = 0;
+		for(int c = 1; c < candidates.length; c++) {
+			if(fastest[c] < fastest[best]) {
+				best = c;
+			}
+		}
+		return CANDIDATE_TILES[best];
+	}
+
+	/**
+	 * @return the number of bodies in a block
+	 */
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	@Override
+	public String getName() {
+		return "tiled:" + tileSize;
+	}
+
+	@Override
+	public boolean isExact() {
+		return true;
+	}
+}
@@ -0,0 +1,148 @@
+package nBodySim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads back the frames written by a TrajectoryRecorder, one at a time. A chunk cut short at
+ * the end of the file, from a run that was killed while writing, ends the recording
+ * @author andre
+ *
+ */
+public class TrajectoryReader implements Closeable {
+	private final String filePath;
+	private final FileChannel channel;
+	private long position;
+
+	/*
+	 * The frame last read
+	 */
+	private long step;
+	private double time;
+	private int size;
+	private double[] x = new double[0];
+	private double[] y = new double[0];
+	private double[] vx = new double[0];
+	private double[] vy = new double[0];
+	private int[] ids = new int[0];
+
+	/**
+	 * Open a recording
+	 * @param filePath
+	 * @throws IOException if the file can not be read or is not a recording
+	 */
+	public TrajectoryReader(String filePath) throws IOException {
+		this.filePath = filePath;
+		channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+		ByteBuffer header = readFully(0, 8);
+		if(header == null || header.getInt() != TrajectoryRecorder.MAGIC || header.getInt() != TrajectoryRecorder.VERSION) {
+			channel.close();
+			throw new IOException(filePath + ": not a version " + TrajectoryRecorder.VERSION + " trajectory recording");
+		}
+		position = 8;
+	}
+
+	/**
+	 * Move on to the next frame
+	 * @return false if there are no more frames
+	 * @throws IOException if the file can not be read or a chunk is malformed
+	 */
+	public boolean next() throws IOException {
+		ByteBuffer chunk = readFully(position, TrajectoryRecorder.CHUNK_HEADER_SIZE);
+		if(chunk == null) {
+			return false;
+		}
+		int length = chunk.getInt();
+		step = chunk.getLong();
+		time = chunk.getDouble();
+		int n = chunk.getInt();
+		chunk.getInt();
+		if(n < 0 || length != TrajectoryRecorder.CHUNK_HEADER_SIZE - Integer.BYTES + (4L * Double.BYTES + Integer.BYTES) * n) {
+			throw new IOException(filePath + ": bad chunk at byte " + position);
+		}
+		ByteBuffer columns = readFully(position + TrajectoryRecorder.CHUNK_HEADER_SIZE, (4 * Double.BYTES + Integer.BYTES) * n);
+		if(columns == null) {
+			return false;
+		}
+		if(x.length < n) {
+			x = new double[n];
+			y = new double[n];
+			vx = new double[n];
+			vy = new double[n];
+			ids = new int[n];
+		}
+		for(double[] column : new double[][] { x, y, vx, vy }) {
+			columns.asDoubleBuffer().get(column, 0, n);
+			columns.position(columns.position() + Double.BYTES * n);
+		}
+		columns.asIntBuffer().get(ids, 0, n);
+		size = n;
+		position += Integer.BYTES + length;
+		return true;
+	}
+
+	/**
+	 * @return the bytes at a position, or null if the file ends first
+	 */
+	private ByteBuffer readFully(long at, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, at + buffer.position()) < 0) {
+				return null;
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * @return the step number of the current frame
+	 */
+	public long getStep() {
+		return step;
+	}
+
+	/**
+	 * @return the simulation time of the current frame
+	 */
+	public double getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the number of bodies in the current frame
+	 */
+	public int size() {
+		return size;
+	}
+
+	public double getX(int i) {
+		return x[i];
+	}
+
+	public double getY(int i) {
+		return y[i];
+	}
+
+	public double getVelocityX(int i) {
+		return vx[i];
+	}
+
+	public double getVelocityY(int i) {
+		return vy[i];
+	}
+
+	public int getId(int i) {
+		return ids[i];
+	}
+}
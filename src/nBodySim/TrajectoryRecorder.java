@@ -0,0 +1,295 @@
+package nBodySim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Records the positions and velocities of a universe every few steps into an append-only
+ * binary file. A file starts with the int magic "NBTR" and a format version, then holds one
+ * chunk per recorded frame, all little-endian:
+ * <pre>
+ * int    length of the rest of the chunk in bytes
+ * long   step number
+ * double simulation time
+ * int    body count n
+ * int    zero
+ * n x    double, one column each for x, y, vx and vy
+ * n x    int, the ID of each body
+ * </pre>
+ * Bodies change places in the store when others are removed, so the IDs are what ties a body
+ * in one frame to the same body in the next.
+ * Frames are copied into one of two direct buffers and a background thread writes the other,
+ * so the simulation thread never waits on the disk. If the writer falls so far behind that
+ * both buffers are full, frames are dropped and counted instead; the step numbers in the file
+ * show where. Opening an existing recording appends to it, after cutting off a final chunk
+ * that was only partly written when the last run stopped
+ * @author andre
+ *
+ */
+public class TrajectoryRecorder implements Closeable {
+	/**
+	 * The first four bytes of every recording, "NBTR" read as a little-endian int
+	 */
+	public static final int MAGIC = 0x5254424E;
+	/**
+	 * The version this class writes
+	 */
+	public static final int VERSION = 2;
+	/**
+	 * The size of a chunk before its columns
+	 */
+	static final int CHUNK_HEADER_SIZE = 28;
+	/**
+	 * The size of each of the two buffers, unless a single frame needs more
+	 */
+	private static final int DEFAULT_BUFFER_SIZE = 4 << 20;
+
+	private final FileChannel channel;
+	/**
+	 * Record every this many steps
+	 */
+	private final int interval;
+	/**
+	 * Buffers waiting to be written, and buffers the writer has emptied
+	 */
+	private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<ByteBuffer>(3);
+	private final BlockingQueue<ByteBuffer> empty = new ArrayBlockingQueue<ByteBuffer>(2);
+	/**
+	 * The buffer frames are being added to, null if both are with the writer
+	 */
+	private ByteBuffer current;
+	private final Thread writer;
+	/**
+	 * The first error the writer hit, reported from the simulation thread
+	 */
+	private volatile IOException writeError;
+	private long recordedFrames;
+	private long droppedFrames;
+	private boolean closed;
+
+	/**
+	 * Start recording to a file
+	 * @param filePath the recording, created if it does not exist and appended to if it does
+	 * @param interval record every this many steps
+	 * @throws IOException if the file can not be opened, or is not a recording
+	 */
+	public TrajectoryRecorder(String filePath, int interval) throws IOException {
+		this(filePath, interval, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Start recording to a file for a sim that carries on from a step, such as one restored from
+	 * a checkpoint. Frames already in the file from after that step are cut off, since the sim
+	 * will record them again
+	 * @param filePath the recording, created if it does not exist and appended to if it does
+	 * @param interval record every this many steps
+	 * @param resumeStep the step the sim is at, frames after it are removed from the file
+	 * @throws IOException if the file can not be opened, or is not a recording
+	 */
+	public TrajectoryRecorder(String filePath, int interval, long resumeStep) throws IOException {
+		if(interval < 1) {
+			throw new IllegalArgumentException("Interval must be at least one step");
+		}
+		this.interval = interval;
+		channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		if(channel.size() == 0) {
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			while(header.hasRemaining()) {
+				channel.write(header);
+			}
+		}
+		else {
+			while(header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+			}
+			if(header.hasRemaining() || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				channel.close();
+				throw new IOException(filePath + ": not a version " + VERSION + " trajectory recording");
+			}
+			long end = findEnd(resumeStep);
+			if(end < channel.size()) {
+				channel.truncate(end);
+			}
+			channel.position(end);
+		}
+		current = newBuffer(DEFAULT_BUFFER_SIZE);
+		empty.add(newBuffer(DEFAULT_BUFFER_SIZE));
+		writer = new Thread(this::writeLoop, "nbody-trajectory-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Called by the universe after every step, records a frame every interval steps counted
+	 * from the start of the sim, so a sim restarted from a checkpoint carries on the same frames
+	 * @param universe
+	 * @throws IllegalStateException if the writer thread could not write an earlier frame
+	 */
+	public void stepped(Universe universe) {
+		if(universe.getStepCount() % interval == 0) {
+			record(universe.getBodyStore(), universe.getStepCount(), universe.getTime());
+		}
+	}
+
+	/**
+	 * Add a frame to the recording
+	 * @param store the bodies to record
+	 * @param step the step number to record the frame under
+	 * @param time the simulation time of the frame
+	 */
+	public void record(BodyStore store, long step, double time) {
+		if(closed) {
+			throw new IllegalStateException("Recorder is closed");
+		}
+		if(writeError != null) {
+			throw new IllegalStateException("Trajectory could not be written", writeError);
+		}
+		int n = store.size;
+		int frameSize = CHUNK_HEADER_SIZE + (4 * Double.BYTES + Integer.BYTES) * n;
+		if(current != null && current.remaining() < frameSize) {
+			full.add(current);
+			current = empty.poll();
+		}
+		else if(current == null) {
+			current = empty.poll();
+		}
+		if(current == null) {
+			droppedFrames++;
+			return;
+		}
+		if(current.capacity() < frameSize) {
+			current = newBuffer(frameSize);
+		}
+		current.putInt(frameSize - Integer.BYTES);
+		current.putLong(step);
+		current.putDouble(time);
+		current.putInt(n);
+		current.putInt(0);
+		for(double[] column : new double[][] { store.x, store.y, store.vx, store.vy }) {
+			current.asDoubleBuffer().put(column, 0, n);
+			current.position(current.position() + Double.BYTES * n);
+		}
+		current.asIntBuffer().put(store.ids, 0, n);
+		current.position(current.position() + Integer.BYTES * n);
+		recordedFrames++;
+	}
+
+	/**
+	 * Write out every frame recorded so far and close the file. Waits for the writer thread
+	 * @throws IOException if a frame could not be written
+	 */
+	@Override
+	public void close() throws IOException {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		if(current != null && current.position() > 0) {
+			full.add(current);
+		}
+		current = null;
+		//An empty buffer tells the writer to stop
+		full.add(ByteBuffer.allocate(0));
+		try {
+			writer.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			if(writeError == null) {
+				channel.force(false);
+			}
+		} finally {
+			channel.close();
+		}
+		if(writeError != null) {
+			throw writeError;
+		}
+	}
+
+	/**
+	 * Walk the chunks of the open recording
+	 * @param resumeStep the last step whose frame is kept
+	 * @return the end of the last chunk that was written whole and is not after resumeStep
+	 * @throws IOException
+	 */
+	private long findEnd(long resumeStep) throws IOException {
+		//The length, step, time and body count at the start of each chunk
+		ByteBuffer chunk = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+		long size = channel.size();
+		long position = 8;
+		while(position < size) {
+			chunk.clear();
+			while(chunk.hasRemaining() && channel.read(chunk, position + chunk.position()) >= 0) {
+			}
+			if(chunk.hasRemaining()) {
+				break;
+			}
+			int length = chunk.getInt(0);
+			int n = chunk.getInt(20);
+			if(n < 0 || length != CHUNK_HEADER_SIZE - Integer.BYTES + (4L * Double.BYTES + Integer.BYTES) * n
+					|| position + Integer.BYTES + length > size || chunk.getLong(4) > resumeStep) {
+				break;
+			}
+			position += Integer.BYTES + length;
+		}
+		return position;
+	}
+
+	private void writeLoop() {
+		while(true) {
+			ByteBuffer buffer;
+			try {
+				buffer = full.take();
+			} catch(InterruptedException e) {
+				return;
+			}
+			if(buffer.capacity() == 0) {
+				return;
+			}
+			buffer.flip();
+			try {
+				while(buffer.hasRemaining() && writeError == null) {
+					channel.write(buffer);
+				}
+			} catch(IOException e) {
+				writeError = e;
+			}
+			buffer.clear();
+			empty.offer(buffer);
+		}
+	}
+
+	private static ByteBuffer newBuffer(int size) {
+		return ByteBuffer.allocateDirect(Math.max(size, DEFAULT_BUFFER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * @return the number of steps between frames
+	 */
+	public int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @return the number of frames added to the recording
+	 */
+	public long getRecordedFrames() {
+		return recordedFrames;
+	}
+
+	/**
+	 * @return the number of frames skipped because the writer thread was behind
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
+}
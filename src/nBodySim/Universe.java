@@ -1,10 +1,8 @@
 package nBodySim;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
-import lib.StdDraw;
-import lib.Tuple;
-import lib.Vector2D;
 
 /**
  * A universe of n-bodies, allows for collision of objects and gravitational forces
@@ -22,26 +20,63 @@ public class Universe {
 	 */
 	private double time;
 	/**
-	 * The radius of the sim
+	 * The number of steps taken since the sim started
 	 */
-	private double radius;
+	private long stepCount;
 	/**
-	 * all bodies in this sim
+	 * The radius of the sim
 	 */
-	private ArrayList<Body> allBodies;
+	private double radius;
 	/**
-	 * Bodies that have collided this tick
+	 * all bodies in this sim, stored as parallel arrays
 	 */
-	private ArrayList<Tuple<Body, Body>> collisionBodies;
+	private BodyStore bodies;
 	/**
 	 * The max time that this simulation should run to
 	 */
 	private double maxTime;
-	
 	/**
-	 * The given star background for the window
+	 * Works out the gravitational acceleration of every body each step
+	 */
+	private ForceSolver solver;
+	/**
+	 * How bodies are moved forward in time
+	 */
+	private Integrator integrator = Integrator.EULER;
+	/**
+	 * Finds touching bodies after each step
+	 */
+	private final CollisionGrid collisionGrid = new CollisionGrid();
+	/**
+	 * Combines the touching bodies the grid finds
+	 */
+	private final CollisionMerger collisionMerger = new CollisionMerger();
+	/**
+	 * Moves bodies with their own timesteps, created the first time it is used
+	 */
+	private BlockTimestepper blockTimestepper;
+	/**
+	 * Writes positions and velocities out every few steps, null when not recording
+	 */
+	private TrajectoryRecorder recorder;
+	/**
+	 * Counts and times the phases of each step
+	 */
+	private final StepMetrics metrics = new StepMetrics();
+	/**
+	 * Time spent working out forces so far this step, in nanoseconds
+	 */
+	private long stepForceNanos;
+	/**
+	 * The version of the body store the accelerations were last worked out for, the
+	 * second order integrators reuse them while the bodies have not been changed
 	 */
-	private final static String starBackground = "src\\data\\starfield.jpg";
+	private long forcesVersion = -1;
+	/**
+	 * The accelerations at the start of the step, for velocity Verlet
+	 */
+	private double[] oldAx = new double[0];
+	private double[] oldAy = new double[0];
 	
 	/**
 	 * Initialize an empty universe of a given radius
@@ -50,158 +85,297 @@ public class Universe {
 	public Universe(double radius) {
 		time = 0;
 		this.radius = radius;
-		allBodies = new ArrayList<Body>();
-		collisionBodies = new ArrayList<Tuple<Body, Body>>();
+		bodies = new BodyStore();
+		solver = new DirectSumSolver();
 	}
 	
 	/**
-	 * Add a body to this simulation
+	 * Add a body to this simulation, the body becomes a view of the universe's storage
 	 * @param toAdd
 	 */
 	public void addBody(Body toAdd) {
-		allBodies.add(toAdd);
+		bodies.add(toAdd);
 	}
 	
 	/**
-	 * Get a body by its name
+	 * Get a body by its name, in constant time
 	 * @param name
-	 * @return the body with the corresponding name
+	 * @return a body with the corresponding name, or null. Names are not unique, when several
+	 * bodies share one use getAllByName
 	 */
 	public Body getByName(String name) {
-		for(Body x : allBodies) {
-			if(x.getName().equals(name)) {
-				return x;
-			}
+		int index = bodies.indexOfName(name);
+		return index == -1 ? null : bodies.view(index);
+	}
+	
+	/**
+	 * Get every body with a name, names are not unique
+	 * @param name
+	 * @return the bodies with the name, in storage order
+	 */
+	public ArrayList<Body> getAllByName(String name) {
+		int[] ids = bodies.idsOfName(name);
+		int[] indexes = new int[ids.length];
+		for(int k = 0; k < ids.length; k++) {
+			indexes[k] = bodies.indexOfId(ids[k]);
 		}
-		return null;
+		Arrays.sort(indexes);
+		ArrayList<Body> named = new ArrayList<Body>(indexes.length);
+		for(int index : indexes) {
+			named.add(bodies.view(index));
+		}
+		return named;
 	}
 	
 	/**
-	 * Update this simulation by an amount of time
+	 * Get a body by its ID. IDs are not reused, so an ID can be held on to across steps and
+	 * simply stops finding anything once its body has been merged away
+	 * @param id
+	 * @return the body with the ID, or null if it is no longer in this sim
+	 */
+	public Body getById(int id) {
+		int index = bodies.indexOfId(id);
+		return index == -1 ? null : bodies.view(index);
+	}
+	
+	/**
+	 * Update this simulation by an amount of time and redraw it
 	 * @param deltaTime
-	 * @return Whether a collision occurred this tick
+	 * @return false if bodies collided and were merged this tick
 	 */
 	public boolean update(double deltaTime) {
-		for(Body x : allBodies) {
-			Vector2D netForce = getNetForce(x);
-			x.update(netForce, deltaTime);
-			if(collision()) {
-				return false;
-			}
-		}
+		boolean noCollisions = step(deltaTime);
+		long start = metrics.start();
 		redraw();
-		if(!collisionBodies.isEmpty()) {
-			removeCollisionBodies();
+		metrics.stop(StepMetrics.Phase.REDRAW, start);
+		return noCollisions;
+	}
+	
+	/**
+	 * Advance the physics of this simulation by an amount of time without drawing anything.
+	 * Once the scratch arrays have grown to the number of bodies, a step that has no
+	 * collisions allocates nothing
+	 * @param deltaTime
+	 * @return false if bodies collided and were merged this tick
+	 */
+	public boolean step(double deltaTime) {
+		stepForceNanos = 0;
+		long start = metrics.start();
+		switch(integrator) {
+		case LEAPFROG:
+			leapfrog(deltaTime);
+			break;
+		case VELOCITY_VERLET:
+			velocityVerlet(deltaTime);
+			break;
+		case BLOCK_HERMITE:
+			blockStep(deltaTime);
+			break;
+		default:
+			euler(deltaTime);
+			break;
+		}
+		if(start != 0) {
+			metrics.record(StepMetrics.Phase.INTEGRATION, System.nanoTime() - start - stepForceNanos);
+			if(stepForceNanos != 0) {
+				metrics.record(StepMetrics.Phase.FORCES, stepForceNanos);
+			}
 		}
+		boolean collided = mergeCollisions();
 		time += deltaTime;
-		return true;
+		stepCount++;
+		if(recorder != null) {
+			start = metrics.start();
+			recorder.stepped(this);
+			metrics.stop(StepMetrics.Phase.IO, start);
+		}
+		return !collided;
 	}
 	
 	/**
-	 * Redraw the StdDraw window, with the original bakcground and new positions of bodies
+	 * Work out the gravitational acceleration of every body at the current positions
 	 */
-	private void redraw() {
-		StdDraw.clear();
-		StdDraw.picture(0.5, 0.5, starBackground);
-		for(Body x : allBodies) {
-			StdDraw.picture(getPosition(x.getPosition().getX()), getPosition(x.getPosition().getY()), x.getPicturePath());
+	private void computeForces() {
+		long start = metrics.start();
+		solver.computeAccelerations(bodies, gravitationalConstant);
+		if(start != 0) {
+			stepForceNanos += System.nanoTime() - start;
 		}
-		StdDraw.show();
+		forcesVersion = bodies.getVersion();
 	}
 	
 	/**
-	 * Handle all collsions. Colliding bodies combine, and their new momentums are calculated
+	 * @return whether the accelerations in the store are the ones for the current positions
 	 */
-	private void removeCollisionBodies() {
-		if(!collisionBodies.isEmpty()) {
-			for(Tuple<Body, Body> pair : collisionBodies) {
-				if(allBodies.contains(pair.x) && allBodies.contains(pair.y)) {
-					double newMass = pair.x.getMass() + pair.y.getMass();
-					if(pair.x.getMass() > pair.y.getMass()) {
-						pair.x.setMass(newMass);
-						remove(pair.y);
-					}
-					else {
-						pair.y.setMass(newMass);
-						remove(pair.x);
-					}
-				}
-			}
+	boolean areForcesCurrent() {
+		return forcesVersion == bodies.getVersion();
+	}
+	
+	/**
+	 * Take the accelerations in the store as the ones for the current positions, used when
+	 * restoring a checkpoint
+	 */
+	void markForcesCurrent() {
+		forcesVersion = bodies.getVersion();
+	}
+	
+	/**
+	 * Work out the accelerations if the bodies have changed since they were last worked out
+	 */
+	private void ensureForces() {
+		if(forcesVersion != bodies.getVersion()) {
+			computeForces();
 		}
 	}
 	
 	/**
-	 * Remove a body
-	 * @param toRemove
-	 * @return whether the body was found and removed
+	 * Move every body with a kick then a drift, using the acceleration at the start of the step
+	 * @param deltaTime
 	 */
-	public boolean remove(Body toRemove) {
-		boolean contained = allBodies.remove(toRemove);
-		return contained;
+	private void euler(double deltaTime) {
+		//Every force is worked out from the positions at the start of the step, before anything moves
+		computeForces();
+		kick(deltaTime);
+		drift(deltaTime);
 	}
 	
 	/**
-	 * Get the net force acting on this body
-	 * @param b
-	 * @return the vector, representing the net force on this body
+	 * Move every body with kick-drift-kick leapfrog. The closing half kick leaves the accelerations
+	 * at the end of the step in the store, so the next step starts without a force evaluation
+	 * @param deltaTime
 	 */
-	private Vector2D getNetForce(Body b) {
-		Vector2D netForce = new Vector2D();
-		for(Body x : allBodies) {
-			if(!x.getPosition().equals(b.getPosition())) {
-				netForce.add(getGravitationForce(b, x));
-				netForce.add(getCollisionForces(b, x));
-			}
+	private void leapfrog(double deltaTime) {
+		ensureForces();
+		kick(deltaTime / 2);
+		drift(deltaTime);
+		computeForces();
+		kick(deltaTime / 2);
+	}
+	
+	/**
+	 * Move every body with velocity Verlet
+	 * @param deltaTime
+	 */
+	private void velocityVerlet(double deltaTime) {
+		ensureForces();
+		int n = bodies.size;
+		if(oldAx.length < n) {
+			oldAx = new double[bodies.x.length];
+			oldAy = new double[bodies.x.length];
+		}
+		double halfDeltaTime2 = deltaTime * deltaTime / 2;
+		for(int i = 0; i < n; i++) {
+			bodies.x[i] += bodies.vx[i] * deltaTime + bodies.ax[i] * halfDeltaTime2;
+			bodies.y[i] += bodies.vy[i] * deltaTime + bodies.ay[i] * halfDeltaTime2;
+			oldAx[i] = bodies.ax[i];
+			oldAy[i] = bodies.ay[i];
+		}
+		computeForces();
+		for(int i = 0; i < n; i++) {
+			bodies.vx[i] += (oldAx[i] + bodies.ax[i]) * deltaTime / 2;
+			bodies.vy[i] += (oldAy[i] + bodies.ay[i]) * deltaTime / 2;
 		}
-		return netForce;
 	}
 	
 	/**
-	 * Get the forces from a collision, force is the change in momentum in physics
-	 * @param b1
-	 * @param b2
-	 * @return the collision force, or change in momentum, as a vct
+	 * Move every body with its own block timestep
+	 * @param deltaTime
+	 */
+	private void blockStep(double deltaTime) {
+		getBlockTimestepper().step(bodies, deltaTime, gravitationalConstant);
+	}
+	
+	/**
+	 * Change every velocity by its acceleration over a time
+	 * @param deltaTime
 	 */
-	private Vector2D getCollisionForces(Body b1, Body b2) {
-		double distance = Vector2D.distance(b1.getPosition(), b2.getPosition());
-		if(distance < b1.getRadius() || distance < b2.getRadius()) {
-			collisionBodies.add(new Tuple<Body, Body>(b1, b2));
-			return Vector2D.scale(b2.getVelocity(), b2.getMass());			
+	private void kick(double deltaTime) {
+		for(int i = 0; i < bodies.size; i++) {
+			bodies.vx[i] += bodies.ax[i] * deltaTime;
+			bodies.vy[i] += bodies.ay[i] * deltaTime;
 		}
-		return new Vector2D();
 	}
 	
 	/**
-	 * Get the gravitation forces acting on free, from source
-	 * @param free
-	 * @param source
-	 * @return the gravitational forces acting on free, from the source body, as a vct
+	 * Change every position by its velocity over a time
+	 * @param deltaTime
 	 */
-	private Vector2D getGravitationForce(Body free, Body source) {
-		double r = free.getPosition().distance(source.getPosition());
-		double forceMagnitude = (gravitationalConstant * free.getMass() * source.getMass()) / (r * r);
-		Vector2D differenceVector = Vector2D.subtract(free.getPosition(), source.getPosition());
-		double sinTheta = differenceVector.getY() / r;
-		double cosTheta = differenceVector.getX() / r;
-		Vector2D retVct = new Vector2D(forceMagnitude * cosTheta, forceMagnitude * sinTheta);
-		retVct.negate();
-		return retVct;
+	private void drift(double deltaTime) {
+		for(int i = 0; i < bodies.size; i++) {
+			bodies.x[i] += bodies.vx[i] * deltaTime;
+			bodies.y[i] += bodies.vy[i] * deltaTime;
+		}
 	}
 	
 	/**
-	 * Check for all collisions
-	 * @return whether a collision was found
+	 * Get the total kinetic plus gravitational potential energy of the bodies, for checking how
+	 * well an integrator conserves it
+	 * @return the total energy, in joules
 	 */
-	private boolean collision() {
-		for(Body x : allBodies) {
-			for(Body y : allBodies) {
-				double distance = Vector2D.distance(x.getPosition(), y.getPosition());
-				if(distance < x.getRadius() && x.getPosition() != y.getPosition()) {
-					return true;
+	public double getTotalEnergy() {
+		double energy = 0;
+		for(int i = 0; i < bodies.size; i++) {
+			energy += 0.5 * bodies.mass[i] * (bodies.vx[i] * bodies.vx[i] + bodies.vy[i] * bodies.vy[i]);
+			for(int j = i + 1; j < bodies.size; j++) {
+				double dx = bodies.x[j] - bodies.x[i];
+				double dy = bodies.y[j] - bodies.y[i];
+				double r = Math.sqrt(dx * dx + dy * dy);
+				if(r != 0) {
+					energy -= gravitationalConstant * bodies.mass[i] * bodies.mass[j] / r;
 				}
 			}
 		}
-		return false;
+		return energy;
+	}
+	
+	/**
+	 * Redraw the StdDraw window, with the original bakcground and new positions of bodies
+	 */
+	private void redraw() {
+		RenderLoop.draw(snapshot());
+	}
+	
+	/**
+	 * Copy the current positions into a snapshot that another thread can draw
+	 * @return the snapshot
+	 */
+	public UniverseSnapshot snapshot() {
+		return new UniverseSnapshot(bodies, time, radius);
+	}
+	
+	/**
+	 * Remove a body. The last body is moved into its slot, so the order of the rest changes
+	 * @param toRemove
+	 * @return whether the body was found and removed
+	 */
+	public boolean remove(Body toRemove) {
+		int index = bodies.indexOf(toRemove);
+		if(index == -1) {
+			return false;
+		}
+		bodies.remove(index);
+		return true;
+	}
+	
+	/**
+	 * Handle all collsions. Every group of touching bodies combines into its heaviest body,
+	 * keeping the group's mass and momentum, using a grid rebuilt once per step
+	 * @return whether any bodies touched
+	 */
+	private boolean mergeCollisions() {
+		long start = metrics.start();
+		collisionGrid.build(bodies);
+		int pairs = collisionGrid.findTouchingPairs();
+		metrics.stop(StepMetrics.Phase.COLLISIONS, start);
+		if(pairs == 0) {
+			metrics.countStep(0, 0);
+			return false;
+		}
+		start = metrics.start();
+		int merged = collisionMerger.merge(bodies, collisionGrid, pairs);
+		metrics.stop(StepMetrics.Phase.MERGES, start);
+		metrics.countStep(pairs, merged);
+		return true;
 	}
 	
 	/**
@@ -220,14 +394,41 @@ public class Universe {
 	public double getTime() {
 		return time;
 	}
+	
+	/**
+	 * @return the number of steps taken since the sim started
+	 */
+	public long getStepCount() {
+		return stepCount;
+	}
+	
+	void setStepCount(long stepCount) {
+		this.stepCount = stepCount;
+	}
 	public void setWorldTime(double time) {
 		this.time = time;
 	}
+	/**
+	 * @return views of every body in this sim, in storage order
+	 */
 	public ArrayList<Body> getAllBodies() {
+		ArrayList<Body> allBodies = new ArrayList<Body>(bodies.size);
+		for(int i = 0; i < bodies.size; i++) {
+			allBodies.add(bodies.view(i));
+		}
 		return allBodies;
 	}
 	public void setAllBodies(ArrayList<Body> allBodies) {
-		this.allBodies = allBodies;
+		bodies.clear();
+		for(Body x : allBodies) {
+			bodies.add(x);
+		}
+	}
+	/**
+	 * @return the array storage behind this sim
+	 */
+	public BodyStore getBodyStore() {
+		return bodies;
 	}
 
 	public double getRadius() {
@@ -245,14 +446,107 @@ public class Universe {
 	public void setMaxTime(double maxTime) {
 		this.maxTime = maxTime;
 	}
+	
+	/**
+	 * @return the solver that works out gravity each step
+	 */
+	public ForceSolver getForceSolver() {
+		return solver;
+	}
+	
+	/**
+	 * Change how gravity is worked out, takes effect from the next step
+	 * @param solver
+	 */
+	public void setForceSolver(ForceSolver solver) {
+		if(solver == null) {
+			throw new IllegalArgumentException("Force solver must not be null");
+		}
+		this.solver = solver;
+		forcesVersion = -1;
+	}
+	
+	/**
+	 * @return how bodies are moved forward in time
+	 */
+	public Integrator getIntegrator() {
+		return integrator;
+	}
+	
+	/**
+	 * @return the block timestep integrator used by BLOCK_HERMITE, with its settings and counters
+	 */
+	public BlockTimestepper getBlockTimestepper() {
+		if(blockTimestepper == null) {
+			blockTimestepper = new BlockTimestepper();
+		}
+		return blockTimestepper;
+	}
+	
+	/**
+	 * @return the block timestep integrator if it has been used, without creating one
+	 */
+	BlockTimestepper getBlockTimestepperIfCreated() {
+		return blockTimestepper;
+	}
+	
+	/**
+	 * Change how bodies are moved forward in time, takes effect from the next step. Switching
+	 * throws away the cached forces and the block timestep state, since the other integrator
+	 * leaves the accelerations and jerks out of step with the bodies
+	 * @param integrator
+	 */
+	public void setIntegrator(Integrator integrator) {
+		if(integrator == null) {
+			throw new IllegalArgumentException("Integrator must not be null");
+		}
+		if(integrator == this.integrator) {
+			return;
+		}
+		this.integrator = integrator;
+		forcesVersion = -1;
+		if(blockTimestepper != null) {
+			blockTimestepper.reset();
+		}
+	}
+	
+	/**
+	 * @return the recorder steps are written to, or null
+	 */
+	public TrajectoryRecorder getTrajectoryRecorder() {
+		return recorder;
+	}
+	
+	/**
+	 * Record the trajectory of this sim from the next step on. The caller closes the recorder
+	 * @param recorder the recorder to use, or null to stop recording
+	 */
+	public void setTrajectoryRecorder(TrajectoryRecorder recorder) {
+		this.recorder = recorder;
+	}
+	
+	/**
+	 * @return the counters and timers for this sim's steps. The block timestepper works out its
+	 * own forces, so with BLOCK_HERMITE they are timed as integration
+	 */
+	public StepMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * @return the gravitational constant used by this sim
+	 */
+	public double getGravitationalConstant() {
+		return gravitationalConstant;
+	}
 
 	@Override
 	public String toString() {
 		String retString = "";
-		retString += allBodies.size() + "\n";
+		retString += bodies.size + "\n";
 		retString += radius;
-		for(Body x : allBodies){
-			retString +=  "\n" + x;
+		for(int i = 0; i < bodies.size; i++){
+			retString +=  "\n" + bodies.view(i);
 		}
 		return retString;
 	}
@@ -0,0 +1,29 @@
+package nBodySim;
+
+import java.io.IOException;
+
+/**
+ * Reads universes from the text files in src\data, or their binary form. Kept apart from the
+ * GUI so universes can be loaded without any windowing classes
+ * @author andre
+ *
+ */
+public class UniverseLoader {
+
+	private UniverseLoader() {
+	}
+
+	/**
+	 * Get a universe from a file path. Binary universes are recognised by their magic number,
+	 * anything else is memory mapped and parsed as text, see MappedUniverseReader
+	 * @param filePath The file to create from
+	 * @return the universe represented by the file
+	 * @throws IOException if the file can not be read or is not a universe
+	 */
+	public static Universe load(String filePath) throws IOException {
+		if(BinaryUniverseFormat.isBinary(filePath)) {
+			return BinaryUniverseFormat.read(filePath);
+		}
+		return MappedUniverseReader.load(filePath);
+	}
+}
@@ -0,0 +1,66 @@
+package nBodySim;
+
+/**
+ * An immutable copy of what a universe looks like at one moment, safe to hand to another thread
+ * for drawing while the simulation keeps stepping
+ * @author andre
+ *
+ */
+public final class UniverseSnapshot {
+	private final double time;
+	private final double radius;
+	private final double[] x;
+	private final double[] y;
+	private final String[] pictures;
+
+	/**
+	 * Copy the positions and pictures out of a store
+	 * @param bodies
+	 * @param time
+	 * @param radius
+	 */
+	UniverseSnapshot(BodyStore bodies, double time, double radius) {
+		this.time = time;
+		this.radius = radius;
+		int n = bodies.size;
+		x = new double[n];
+		y = new double[n];
+		pictures = new String[n];
+		System.arraycopy(bodies.x, 0, x, 0, n);
+		System.arraycopy(bodies.y, 0, y, 0, n);
+		System.arraycopy(bodies.pictures, 0, pictures, 0, n);
+	}
+
+	/**
+	 * @return the simulation time of the snapshot
+	 */
+	public double getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the radius of the universe
+	 */
+	public double getRadius() {
+		return radius;
+	}
+
+	/**
+	 * @return the number of bodies
+	 */
+	public int size() {
+		return x.length;
+	}
+
+	public double getX(int i) {
+		return x[i];
+	}
+
+	public double getY(int i) {
+		return y[i];
+	}
+
+	public String getPicturePath(int i) {
+		return pictures[i];
+	}
+}